@@ -0,0 +1,107 @@
+package com.github.madzdns.clusterlet;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.madzdns.clusterlet.Member.ClusterAddress;
+
+/**
+ * Latency statistics of one sync address of a member as seen by this node.
+ * Times are exponentially weighted moving averages in milliseconds
+ */
+public class AddressStats {
+    /*
+     * Weight of the newest sample in the moving averages
+     */
+    static final double ALPHA = 0.25;
+    static final long MIN_BACKOFF = 1000;
+    static final long MAX_BACKOFF = 5 * 60 * 1000;
+
+    private final ClusterAddress address;
+    private double connectTime = -1;
+    private double roundTripTime = -1;
+    private int failures = 0;
+    private long backoffUntil = 0;
+
+    AddressStats(ClusterAddress address) {
+        this.address = address;
+    }
+
+    private static double average(double current, double sample) {
+        if (current < 0) {
+            return sample;
+        }
+        return current + ALPHA * (sample - current);
+    }
+
+    synchronized void connected(long nanos) {
+        connectTime = average(connectTime, TimeUnit.NANOSECONDS.toMicros(nanos) / 1000.0);
+        failures = 0;
+        backoffUntil = 0;
+    }
+
+    synchronized void roundTrip(long nanos) {
+        roundTripTime = average(roundTripTime, TimeUnit.NANOSECONDS.toMicros(nanos) / 1000.0);
+    }
+
+    /**
+     * Each consecutive failure doubles the time this address stays penalized
+     */
+    synchronized void failed() {
+        failures++;
+        long backoff = MIN_BACKOFF << Math.min(failures - 1, 20);
+        backoffUntil = System.currentTimeMillis() + Math.min(backoff, MAX_BACKOFF);
+    }
+
+    /**
+     * @return the value addresses are ranked by. Round trip time if it is known,
+     * otherwise connect time. -1 if none of them is known
+     */
+    synchronized double getScore() {
+        return roundTripTime >= 0 ? roundTripTime : connectTime;
+    }
+
+    public ClusterAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return average time of connecting to this address or -1 if it is not known
+     */
+    public synchronized double getConnectTime() {
+        return connectTime;
+    }
+
+    /**
+     * @return average time between sending a sync message to this address and
+     * getting its response, or -1 if it is not known
+     */
+    public synchronized double getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    /**
+     * @return number of failed connects since the last successful one
+     */
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return time in milliseconds until which this address is tried only after the healthy ones
+     */
+    public synchronized long getBackoffUntil() {
+        return backoffUntil;
+    }
+
+    public synchronized boolean isHealthy() {
+        return backoffUntil <= System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return address.getAddress().getHostAddress() + ":" + address.getPort() +
+                ",connect=" + connectTime +
+                ",rtt=" + roundTripTime +
+                ",failures=" + failures;
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.madzdns.clusterlet;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.madzdns.clusterlet.config.SyncConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.filter.executor.OrderedThreadPoolExecutor;
+
+/**
+ * Thread pool running {@link SyncHandler} events, so that I/O threads only
+ * do framing and slow {@link ISyncCallback}s don't stall other sessions.
+ * Events of each session are still handled one at a time and in order
+ */
+@Slf4j
+class CallbackExecutor {
+    static final String FILTER_NAME = "callback_executor";
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private final OrderedThreadPoolExecutor executor;
+    private final CallbackQueue queue;
+    private final ExecutorFilter filter;
+
+    /**
+     * @param threads maximum number of threads
+     * @param base    creates the threads. If null, daemon platform threads are created
+     */
+    CallbackExecutor(final String name, int threads, int capacity, final ThreadFactory base) {
+        this.queue = new CallbackQueue(capacity);
+        final AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            if (base != null) {
+                return base.newThread(r);
+            }
+            Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        this.executor = new OrderedThreadPoolExecutor(0, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                factory, queue);
+        /*
+         * Message sent events stay on I/O threads, they are only used to take time stamps
+         */
+        this.filter = new ExecutorFilter(executor, IoEventType.MESSAGE_RECEIVED,
+                IoEventType.SESSION_IDLE, IoEventType.SESSION_CLOSED, IoEventType.EXCEPTION_CAUGHT);
+    }
+
+    /**
+     * Creates the executor configured by config. If virtual threads are asked for but
+     * the JVM does not support them, a pool of platform threads is used instead
+     *
+     * @return null if callbacks should run on I/O threads
+     */
+    static CallbackExecutor create(String name, SyncConfig config) {
+        int capacity = Math.max(1, config.getCallbackQueueCapacity());
+        if (config.getCallbackExecution() == SyncConfig.CallbackExecution.VIRTUAL) {
+            ThreadFactory virtual = VirtualThreads.factory(name);
+            if (virtual != null) {
+                return new CallbackExecutor(name, Math.max(1, config.getVirtualCallbackThreads()), capacity, virtual);
+            }
+            int threads = config.getCallbackThreads() > 0 ? config.getCallbackThreads()
+                    : SyncConfig.DEFAULT_CALLBACK_THREADS;
+            log.warn("Virtual threads are not available. Using a pool of {} platform threads for {}",
+                    threads, name);
+            return new CallbackExecutor(name, threads, capacity, null);
+        }
+        if (config.getCallbackThreads() <= 0) {
+            return null;
+        }
+        return new CallbackExecutor(name, config.getCallbackThreads(), capacity, null);
+    }
+
+    ExecutorFilter getFilter() {
+        return filter;
+    }
+
+    CallbackQueue getQueue() {
+        return queue;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.madzdns.clusterlet;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.executor.IoEventQueueHandler;
+
+/**
+ * Bounds and measures the events waiting for callback threads. When the queue is full,
+ * reading of the sessions offering new events is suspended until callback threads catch
+ * up, so that slow callbacks push back on the peers instead of piling up events in memory.
+ * I/O threads never wait for the queue, so other sessions of the same processor go on
+ */
+@Slf4j
+public class CallbackQueue implements IoEventQueueHandler {
+    private final int capacity;
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicLong offeredEvents = new AtomicLong();
+    private final AtomicLong suspensions = new AtomicLong();
+    private final Set<IoSession> suspended = ConcurrentHashMap.newKeySet();
+
+    CallbackQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public boolean accept(Object source, IoEvent event) {
+        return true;
+    }
+
+    @Override
+    public void offered(Object source, IoEvent event) {
+        int d = depth.incrementAndGet();
+        offeredEvents.incrementAndGet();
+        int max = maxDepth.get();
+        while (d > max && !maxDepth.compareAndSet(max, d)) {
+            max = maxDepth.get();
+        }
+        if (d <= capacity) {
+            return;
+        }
+        IoSession session = event.getSession();
+        if (session != null && suspended.add(session)) {
+            suspensions.incrementAndGet();
+            log.debug("Callback queue is full ({} events). Suspending reads of {}", d, session.getRemoteAddress());
+            session.suspendRead();
+        }
+        /*
+         * Callback threads might have drained the queue before session got suspended
+         */
+        if (depth.get() <= capacity) {
+            resumeAll();
+        }
+    }
+
+    @Override
+    public void polled(Object source, IoEvent event) {
+        if (depth.decrementAndGet() <= capacity && !suspended.isEmpty()) {
+            resumeAll();
+        }
+    }
+
+    private void resumeAll() {
+        for (IoSession session : suspended) {
+            if (suspended.remove(session)) {
+                session.resumeRead();
+            }
+        }
+    }
+
+    /**
+     * @return number of events waiting for a callback thread
+     */
+    public int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * @return the highest depth this queue has had
+     */
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * @return depth after which sessions offering events stop being read
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return total number of events queued
+     */
+    public long getOfferedEvents() {
+        return offeredEvents.get();
+    }
+
+    /**
+     * @return number of times reading of a session was suspended since the queue was full
+     */
+    public long getSuspensions() {
+        return suspensions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "depth=" + getDepth() + ",max=" + getMaxDepth() + ",capacity=" + capacity +
+                ",offered=" + getOfferedEvents() + ",suspensions=" + getSuspensions();
+    }
+}
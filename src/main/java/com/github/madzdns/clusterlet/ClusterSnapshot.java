@@ -19,6 +19,7 @@ public class ClusterSnapshot {
     List<Member> cluster = null;
 
     Map<Short, Member> idClusterMap = null;
+    LatencyTracker latencyTracker = null;
 
     public ClusterSnapshot() {
         validCluster = new ArrayList<>();
@@ -102,4 +103,19 @@ public class ClusterSnapshot {
     public List<Member> getCluster() {
         return cluster;
     }
+
+    /**
+     * Returns latency statistics of sync addresses of a member
+     * as measured by this node while syncing with it
+     *
+     * @param id of the member
+     * @return stats of all sync addresses of the member
+     */
+    public List<AddressStats> getAddressStats(short id) {
+        Member member = idClusterMap.get(id);
+        if (member == null || latencyTracker == null) {
+            return new ArrayList<>();
+        }
+        return latencyTracker.get(id, member.getSyncAddresses());
+    }
 }
@@ -0,0 +1,27 @@
+package com.github.madzdns.clusterlet;
+
+/**
+ * Gets told how a sync goes, as members respond, before the whole
+ * {@link SyncFeature} is known. Methods are called on network threads,
+ * so they should return quickly. They are called in the order members
+ * respond, though not while the sync holds its own lock
+ */
+public interface ISyncProgressListener {
+    /**
+     * Message of key got synced with member
+     */
+    default void synced(String key, short memberId) {
+    }
+
+    /**
+     * Message of key failed to sync with member
+     */
+    default void failed(String key, short memberId) {
+    }
+
+    /**
+     * Message of key got synced with a majority of members, in quorum syncs
+     */
+    default void quorumReached(String key) {
+    }
+}
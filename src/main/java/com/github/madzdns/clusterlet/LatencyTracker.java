@@ -0,0 +1,83 @@
+package com.github.madzdns.clusterlet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.madzdns.clusterlet.Member.ClusterAddress;
+
+/**
+ * Keeps {@link AddressStats} of addresses of all members of a {@link SyncContext}.
+ * Stats are kept here rather than in {@link Member}s since members get replaced
+ * whenever cluster information is updated
+ */
+class LatencyTracker {
+    private final Map<String, AddressStats> stats = new ConcurrentHashMap<>();
+
+    AddressStats get(short memberId, ClusterAddress address) {
+        String key = SyncTransport.poolKey(memberId, address);
+        AddressStats s = stats.get(key);
+        if (s == null) {
+            s = new AddressStats(address);
+            AddressStats old = stats.putIfAbsent(key, s);
+            if (old != null) {
+                s = old;
+            }
+        }
+        return s;
+    }
+
+    List<AddressStats> get(short memberId, Collection<ClusterAddress> addresses) {
+        List<AddressStats> result = new ArrayList<>();
+        if (addresses != null) {
+            for (ClusterAddress address : addresses) {
+                result.add(get(memberId, address));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Orders addresses to be tried. Healthy addresses with lower latency come first,
+     * then the ones not measured yet and then the ones backed off due to failures.
+     * Ties keep the order of addresses starting from current, as it was before any
+     * latency was measured
+     *
+     * @param current index of the address last worked
+     * @return a new list of addresses in the order they should be tried
+     */
+    List<ClusterAddress> rank(short memberId, List<ClusterAddress> addresses, int current) {
+        int size = addresses.size();
+        if (size < 2) {
+            return new ArrayList<>(addresses);
+        }
+        final int start = Math.floorMod(current, size);
+        List<Integer> indexes = new ArrayList<>(size);
+        final List<AddressStats> s = get(memberId, addresses);
+        for (int i = 0; i < size; i++) {
+            indexes.add(i);
+        }
+        final boolean[] healthy = new boolean[size];
+        final double[] score = new double[size];
+        final long[] backoff = new long[size];
+        for (int i = 0; i < size; i++) {
+            AddressStats stat = s.get(i);
+            healthy[i] = stat.isHealthy();
+            score[i] = stat.getScore();
+            backoff[i] = stat.getBackoffUntil();
+        }
+        indexes.sort(Comparator.<Integer>comparingInt(i -> healthy[i] ? 0 : 1)
+                .thenComparingLong(i -> healthy[i] ? 0 : backoff[i])
+                .thenComparingInt(i -> score[i] < 0 ? 1 : 0)
+                .thenComparingDouble(i -> score[i] < 0 ? 0 : score[i])
+                .thenComparingInt(i -> Math.floorMod(i - start, size)));
+        List<ClusterAddress> ranked = new ArrayList<>(size);
+        for (int i : indexes) {
+            ranked.add(addresses.get(i));
+        }
+        return ranked;
+    }
+}
@@ -15,7 +15,15 @@ public class MinaToISession implements ISession {
 		this.remoteAddress = session.getRemoteAddress();
 		this.localAddress = session.getLocalAddress();
 		
-		this.inStratup = (Boolean) session.getAttribute("startupstate");
+		this.inStratup = (Boolean) session.getAttribute(SyncHandler.STARTUP_STATE_KEY);
+	}
+	
+	MinaToISession(IoSession session, boolean inStartup) {
+		
+		this.remoteAddress = session.getRemoteAddress();
+		this.localAddress = session.getLocalAddress();
+		
+		this.inStratup = inStartup;
 	}
 	
 	@Override
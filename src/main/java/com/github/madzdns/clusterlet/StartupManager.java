@@ -23,7 +23,7 @@ public class StartupManager {
 		ClusterMessage msg = new ClusterMessage();
 		SyncHandler handler = new SyncHandler(syncContext, SyncType.UNICAST_ONE_OF)
 				.withCallBack(new ClusterSyncCallback(syncContext))
-				.withEncoder(null)
+				.withMessageFactory(null)
 				.withoutCluster(syncContext.myId);
 		handler.mode = SyncMode.SYNC_CLUSTER;
 		SyncFeature feature = handler.sync(msg).get();
@@ -46,7 +46,7 @@ public class StartupManager {
 
 		handler = new SyncHandler(syncContext, SyncType.UNICAST_ONE_OF)
 				.withCallBack(new ClusterSyncCallback(syncContext))
-				.withEncoder(null)
+				.withMessageFactory(null)
 				.withoutCluster(syncContext.myId);
 		handler.mode = SyncMode.SYNC_CLUSTER;
 		handler.sync(messages).get();
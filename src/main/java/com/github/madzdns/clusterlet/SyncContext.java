@@ -4,9 +4,12 @@ import com.github.madzdns.clusterlet.codec.ClusterMessage;
 import com.github.madzdns.clusterlet.codec.IMessage;
 import com.github.madzdns.clusterlet.codec.SyncMessage;
 import com.github.madzdns.clusterlet.codec.SyncMessage.SyncMode;
+import com.github.madzdns.clusterlet.codec.mina.CompressionDictionaries;
+import com.github.madzdns.clusterlet.config.SocketOptions;
 import com.github.madzdns.clusterlet.config.SyncConfig;
 import lombok.extern.slf4j.Slf4j;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 @Slf4j
@@ -19,6 +22,9 @@ public class SyncContext {
     boolean inStartup = true;
     private volatile long virtualLastModified = new Date().getTime();
     private volatile ClusterSnapshot snapshot = null;
+    private volatile SyncTransport transport = null;
+    private final LatencyTracker latencyTracker = new LatencyTracker();
+    private final CompressionDictionaries compressionDictionaries = new CompressionDictionaries();
 
     /**
      * Creates a new SyncContext with specified parametes.
@@ -30,13 +36,22 @@ public class SyncContext {
      * @param config @see SyncConfig
      */
     public SyncContext(short myId, SyncConfig config) throws Exception {
-        this.myId = myId;
-        this.config = config;
         /*System.setProperty("net.sf.ehcache.enableShutdownHook","true");
         clusterStore = new EhCacheClusterStore(config.getClusterStorageConfigPath());
         messageStore = new EhCacheMessageStore(config.getClusterStorageConfigPath());*/
-        clusterStore = new JcsCacheClusterStore(config.getClusterStorageConfigPath());
-        messageStore = new JcsCacheMessageStore(config.getClusterStorageConfigPath());
+        this(myId, config, new JcsCacheClusterStore(config.getClusterStorageConfigPath()),
+                new JcsCacheMessageStore(config.getClusterStorageConfigPath()));
+    }
+
+    /**
+     * Creates a context keeping members and messages in the given stores. Messages of
+     * all the contexts using the JCS stores of a JVM share one region
+     */
+    SyncContext(short myId, SyncConfig config, IClusterStore clusterStore, IMessageStore messageStore) {
+        this.myId = myId;
+        this.config = config;
+        this.clusterStore = clusterStore;
+        this.messageStore = messageStore;
         Member member = getMemberById(myId);
         if (member == null) {
             final Set<Short> awareIds = new HashSet<>();
@@ -169,6 +184,42 @@ public class SyncContext {
         return false;
     }
 
+    /**
+     * Makes dictionary the preset dictionary frames are deflated with. It goes to each
+     * member supporting it along with the next message sent to it, and members pass it on
+     * the same way. Members switch to a dictionary once they have got it, so it only
+     * takes effect with {@link SyncConfig.Compression#DEFLATE}
+     *
+     * @param dictionary at most {@link CompressionDictionaries#MAX_SIZE} bytes
+     *                   alike the payloads of messages
+     * @return false if it is not newer than the current one or too large
+     */
+    public boolean syncCompressionDictionary(byte[] dictionary) {
+        return compressionDictionaries.install(dictionary, new Date().getTime());
+    }
+
+    /**
+     * Samples payload of a received message and, once enough is sampled and the
+     * current dictionary is old enough, installs a dictionary trained out of the samples
+     */
+    void sampleCompressionPayload(ByteBuffer payload) {
+        if (!config.isCompressionDictionary() ||
+                config.getCompression() != SyncConfig.Compression.DEFLATE) {
+            return;
+        }
+        compressionDictionaries.sample(payload);
+        long now = new Date().getTime();
+        byte[] trained = compressionDictionaries.train(config.getCompressionDictionaryRefresh(), now);
+        if (trained == null || !compressionDictionaries.install(trained, now)) {
+            return;
+        }
+        log.debug("Trained a compression dictionary of {} bytes", trained.length);
+    }
+
+    CompressionDictionaries getCompressionDictionaries() {
+        return compressionDictionaries;
+    }
+
     /**
      * Check to see if a key is uptodate with cluster
      * Right now it is not implemented becase I don't see
@@ -207,6 +258,7 @@ public class SyncContext {
         }
 
         final ClusterSnapshot tmpMonitor = new ClusterSnapshot();
+        tmpMonitor.latencyTracker = latencyTracker;
         clusterStore.iterator(node -> {
             if (node.isValid()) {
                 tmpMonitor.validClusterIDs.add(node.getId());
@@ -298,6 +350,46 @@ public class SyncContext {
         this.virtualLastModified = virtualLastModified;
     }
 
+    LatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    /**
+     * @return the outbound transport shared by all sender handlers of this context
+     */
+    SyncTransport getTransport() {
+        SyncTransport t = transport;
+        if (t != null) {
+            return t;
+        }
+        synchronized (this) {
+            if (transport == null) {
+                SocketOptions options = config.getOutboundSocketOptions();
+                transport = new SyncTransport(options == null ? new SocketOptions() : options,
+                        CallbackExecutor.create("clusterlet-sender", config));
+            }
+            return transport;
+        }
+    }
+
+    /**
+     * @return queue of events received by senders of this context waiting for
+     * callback threads or null if callbacks run on I/O threads
+     */
+    public CallbackQueue getOutboundCallbackQueue() {
+        return getTransport().getCallbackQueue();
+    }
+
+    /**
+     * Releases network resources of this context. Any sync in progress
+     * fails and this context should not be used to sync messages anymore
+     */
+    public synchronized void shutdown() {
+        if (transport != null) {
+            transport.dispose();
+        }
+    }
+
     /**
      * @return config of this context
      */
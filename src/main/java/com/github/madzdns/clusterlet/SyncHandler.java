@@ -2,9 +2,19 @@ package com.github.madzdns.clusterlet;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.net.ssl.SSLContext;
 
@@ -16,7 +26,9 @@ import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecFactory;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
 import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.executor.ExecutorFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,15 +37,18 @@ import com.github.madzdns.clusterlet.api.net.compress.filter.MinaCompressionFilt
 import com.github.madzdns.clusterlet.api.net.ssl.server.filter.MinaSslFilter;
 import com.github.madzdns.clusterlet.codec.ClusterMessage;
 import com.github.madzdns.clusterlet.codec.IMessage;
+import com.github.madzdns.clusterlet.codec.IMessageFactory;
 import com.github.madzdns.clusterlet.codec.SyncMessage.SyncMode;
 import com.github.madzdns.clusterlet.codec.mina.SyncMinaDecoder;
 import com.github.madzdns.clusterlet.codec.mina.SyncMinaEncoder;
+import com.github.madzdns.clusterlet.config.SyncConfig;
 import com.github.madzdns.clusterlet.helper.CollectionHelper;
 
 public class SyncHandler extends IoHandlerAdapter {
 
     private final static String HIM_KEY = "_HimM_ckKey." + SyncHandler.class;
     private final static String SESSION_INITIATED_KEY = "_initkey." + SyncHandler.class;
+    final static String STARTUP_STATE_KEY = "startupstate";
 
     private Logger log = LoggerFactory.getLogger(SyncHandler.class);
 
@@ -44,6 +59,11 @@ public class SyncHandler extends IoHandlerAdapter {
     boolean isSender;
     private SyncType sync;
     private ISyncCallback callbak;
+    private volatile ISyncProgressListener progressListener = null;
+    /*
+     * Keys the progress listener is told reached quorum
+     */
+    private final Set<String> quorumKeys = ConcurrentHashMap.newKeySet();
     private short[] ids = null;
     SyncMode mode = SyncMode.SYNC_MESSAGE;
     private List<SyncSession> sessions;
@@ -51,7 +71,40 @@ public class SyncHandler extends IoHandlerAdapter {
     private Set<Integer> unProperSockets = null;
     private int currentSocket = 0;
     private boolean nonAsync = false;
-    private Object nonasyncLock = new Object();
+    private boolean resultCreated = false;
+    /*
+     * A j.u.c lock rather than a monitor, so that a virtual thread
+     * waiting in get() does not pin its carrier thread
+     */
+    private ReentrantLock nonasyncLock = new ReentrantLock();
+    private final Condition resultCondition = nonasyncLock.newCondition();
+    private volatile CompletableFuture<SyncFeature> future = null;
+    private volatile boolean cancelled = false;
+    /*
+     * Milliseconds members have to finish the sync. Negative means the
+     * one in SyncConfig
+     */
+    private long timeout = -1;
+    private volatile WheelTimer.Timeout syncDeadline = null;
+    private volatile boolean expired = false;
+    private final AtomicBoolean resultDelivered = new AtomicBoolean();
+    /*
+     * Copy of syncFeature given as the result. Stragglers of a quorum which is decided
+     * early, and members answering late, still change syncFeature afterwards
+     */
+    private volatile SyncFeature deliveredResult = null;
+    /*
+     * Handlers each balanced part of the sync is delegated to
+     */
+    private final List<SyncHandler> children = new CopyOnWriteArrayList<>();
+    /*
+     * Sessions of a sender report on I/O, callback and timer threads. State of
+     * the sync is only changed under this lock. What is decided under it, like
+     * sends and results, is deferred and done out of it
+     */
+    private final ReentrantLock stateLock = new ReentrantLock();
+    private final Deque<Runnable> deferred = new ArrayDeque<>();
+    private boolean draining = false;
     private short numberOfTrieds = 0;
     private boolean startupState;
     private SyncFeature syncFeature = null;
@@ -61,7 +114,15 @@ public class SyncHandler extends IoHandlerAdapter {
     private Set<Short> expectedNodes;
     SyncContext syncContext;
     Member me;
-    private Class<? extends IMessage> encoder;
+    private IMessageFactory encoder;
+    /*
+     * Received contents of messages passed on to the next members of a ring
+     */
+    private Map<IMessage, SyncContent> forwarded = null;
+    /*
+     * Set by SyncServer to run events of listener sessions on callback threads
+     */
+    ExecutorFilter callbackFilter = null;
 
     private SyncHandler withModeCluster() {
         this.mode = SyncMode.SYNC_CLUSTER;
@@ -73,6 +134,15 @@ public class SyncHandler extends IoHandlerAdapter {
         return this;
     }
 
+    /**
+     * Messages found in forwarded are sent as the contents they were received in,
+     * so hops don't serialize them again
+     */
+    private SyncHandler withForwarded(Map<IMessage, SyncContent> forwarded) {
+        this.forwarded = forwarded;
+        return this;
+    }
+
     SyncHandler(SyncContext ctx) {
         this.isSender = false;
         this.syncContext = ctx;
@@ -101,6 +171,18 @@ public class SyncHandler extends IoHandlerAdapter {
         return this;
     }
 
+    /**
+     * Specifies a listener which is told as soon as each member syncs or fails each
+     * message, instead of waiting for the whole result
+     *
+     * @param listener of type @see ISyncProgressListener
+     * @return this SyncHandler
+     */
+    public SyncHandler withProgressListener(ISyncProgressListener listener) {
+        this.progressListener = listener;
+        return this;
+    }
+
     /**
      * Specifies witch nodes you want to sync your messages. Also see @see SyncHandler#withoutCluster
      * If you leave this empty (or simply dont use it) mesage will be tried to sync with all nodes
@@ -115,13 +197,37 @@ public class SyncHandler extends IoHandlerAdapter {
     }
 
     /**
-     * Specifies message encoder class
+     * Specifies message encoder class. Received messages are created using its
+     * constructor without arguments
      *
      * @param encoder
      * @return this SyncHandler
      */
     public SyncHandler withEncoder(Class<? extends IMessage> encoder) {
-        this.encoder = encoder;
+        this.encoder = encoder == null ? null : IMessageFactory.of(encoder);
+        return this;
+    }
+
+    /**
+     * Specifies how received messages are created, e.g. {@code withEncoder(MyMessage::new)}
+     *
+     * @param encoder
+     * @return this SyncHandler
+     */
+    public SyncHandler withEncoder(Supplier<? extends IMessage> encoder) {
+        this.encoder = encoder == null ? null : encoder::get;
+        return this;
+    }
+
+    /**
+     * Specifies the factory of received messages. Unlike {@link #withEncoder(Supplier)},
+     * the factory is told when a message can be recycled
+     *
+     * @param factory
+     * @return this SyncHandler
+     */
+    public SyncHandler withMessageFactory(IMessageFactory factory) {
+        this.encoder = factory;
         return this;
     }
 
@@ -137,6 +243,20 @@ public class SyncHandler extends IoHandlerAdapter {
         return this;
     }
 
+    /**
+     * Specifies how long members have to finish the sync, instead of
+     * {@link com.github.madzdns.clusterlet.config.SyncConfig#getSyncTimeout()}. Members not done by then are
+     * reported as failed in the result
+     *
+     * @param timeout zero or less means waiting forever
+     * @param unit    unit of timeout
+     * @return this SyncHandler
+     */
+    public SyncHandler withTimeout(long timeout, TimeUnit unit) {
+        this.timeout = Math.max(0, unit.toMillis(timeout));
+        return this;
+    }
+
     /**
      * Starts to sync a single message with the cluster. This method should be called
      * after you specified callback and encoder and destinations. Also @see SyncHandler#sync(List<IMessage> msg)
@@ -148,6 +268,10 @@ public class SyncHandler extends IoHandlerAdapter {
         return sync(Collections.singletonList(msg));
     }
 
+    public CompletableFuture<SyncFeature> syncAsync(IMessage msg) {
+        return syncAsync(Collections.singletonList(msg));
+    }
+
     private boolean checkWithBalanceAndSetCallback() {
         if (this.withBalance) {
             this.callbak.result(null);
@@ -182,6 +306,66 @@ public class SyncHandler extends IoHandlerAdapter {
         );
     }
 
+    /**
+     * Same as {@link #syncAsync(List, long, TimeUnit)} without any deadline
+     */
+    public CompletableFuture<SyncFeature> syncAsync(List<IMessage> msg) {
+        return syncAsync(msg, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts to sync batch of messages with cluster like {@link #sync(List)}, but the
+     * result is delivered through the returned future instead of
+     * {@link ISyncCallback#result(SyncFeature)}. Cancelling the future, or it failing
+     * due to the deadline, stops the sync and ends all of its outstanding sessions
+     *
+     * @param msg     messages to sync
+     * @param timeout if positive, the future fails with a {@link TimeoutException}
+     *                unless the sync is done in this time
+     * @param unit    unit of timeout
+     * @return future of the result
+     */
+    public CompletableFuture<SyncFeature> syncAsync(List<IMessage> msg, long timeout, TimeUnit unit) {
+        final CompletableFuture<SyncFeature> f = new CompletableFuture<>();
+        this.future = f;
+        if (timeout > 0) {
+            final long millis = unit.toMillis(timeout);
+            final WheelTimer.Timeout deadline = syncContext.getTransport().schedule(() ->
+                    f.completeExceptionally(new TimeoutException("Sync is not done in " + millis + "ms")), millis);
+            f.whenComplete((r, e) -> deadline.cancel());
+        }
+        f.whenComplete((r, e) -> {
+            if (e != null) {
+                cancel();
+            }
+        });
+        sync(msg);
+        if (nonasyncLock == null) {
+            /*
+             * Nothing was sent, so result is already there
+             */
+            f.complete(syncFeature);
+        }
+        return f;
+    }
+
+    private void cancel() {
+        cancelled = true;
+        WheelTimer.Timeout d = syncDeadline;
+        if (d != null) {
+            d.cancel();
+        }
+        List<SyncSession> s = sessions;
+        if (s != null) {
+            for (SyncSession session : s) {
+                session.cancel();
+            }
+        }
+        for (SyncHandler child : children) {
+            child.cancel();
+        }
+    }
+
     /**
      * Starts to sync batch of messages with cluster. This method should be called
      * after you specified callback and encoder and destinations.
@@ -297,7 +481,10 @@ public class SyncHandler extends IoHandlerAdapter {
                 awareIds = node == null ? null : node.getAwareIds();
             }
             log.debug("aware members for {} = {}", m.getKey(), awareIds);
-            syncContents.put(m.getKey(), new SyncContent(m.getKey(), m.getVersion(), awareIds, m.serialize()));
+            SyncContent received = forwarded == null ? null : forwarded.get(m);
+            syncContents.put(m.getKey(), received != null
+                    ? SyncContent.forward(m.getKey(), m.getVersion(), awareIds, received)
+                    : SyncContent.of(m.getKey(), m.getVersion(), awareIds, m));
             SyncResult s = new SyncResult();
             s.addSyncedMember(awareIds);
             this.syncFeature.put(m.getKey(), s);
@@ -309,10 +496,14 @@ public class SyncHandler extends IoHandlerAdapter {
         }
 
         if (sessions != null && sessions.size() > 0) {
+            scheduleDeadline();
             if (SyncType.checkIfRingType(sync) ||
                     sync == SyncType.UNICAST_ONE_OF) {
                 sessions.get(0).sendMsg(message);
             } else if (SyncType.checkIfUnicastType(sync)) {
+                if (sessions.size() > 1) {
+                    message.shareContents();
+                }
                 for (SyncSession s : sessions) {
                     s.sendMsg(message);
                 }
@@ -324,6 +515,57 @@ public class SyncHandler extends IoHandlerAdapter {
         return this;
     }
 
+    private void scheduleDeadline() {
+        final long t = timeout < 0 ? syncContext.getConfig().getSyncTimeout() : timeout;
+        if (t > 0) {
+            syncDeadline = syncContext.getTransport().schedule(() -> expire(t), t);
+        }
+    }
+
+    /**
+     * Called off the timer thread when members did not finish the sync in time.
+     * They are failed and the result is created out of what is known so far
+     */
+    private void expire(long timeout) {
+        stateLock.lock();
+        try {
+            List<SyncSession> s = sessions;
+            if (cancelled || s == null) {
+                return;
+            }
+            for (SyncSession session : s) {
+                defer(session::cancel);
+            }
+            if (resultDelivered.get()) {
+                /*
+                 * Stragglers of a quorum which was decided early
+                 */
+                return;
+            }
+            expired = true;
+            Set<Short> outstanding = new HashSet<>();
+            if (expectedNodes != null) {
+                /*
+                 * In ring, members reached through others are not done either
+                 */
+                outstanding.addAll(expectedNodes);
+            }
+            for (SyncSession session : s) {
+                if (expectedNodes == null && !session.isDone()) {
+                    outstanding.add(session.getMemberId());
+                }
+            }
+            log.warn("Sync was not done in {}ms. Failing members {}", timeout, outstanding);
+            for (Short id : outstanding) {
+                numberOfTrieds++;
+                addFaildNodeToSynchFeatures(id);
+            }
+            decideResult();
+        } finally {
+            unlockState();
+        }
+    }
+
     private Set<Short> addAndGetAwareNodesOfMessage(IMessage m) {
         Set<Short> awareIds;
         awareIds = syncContext.getAwareNodes(m.getKey(), m.getVersion());
@@ -341,19 +583,31 @@ public class SyncHandler extends IoHandlerAdapter {
      * @return SyncFeature result
      */
     public SyncFeature get() {
-        this.nonAsync = true;
-        if (nonasyncLock == null) {
-            return this.syncFeature;
+        ReentrantLock lock = nonasyncLock;
+        if (lock == null) {
+            return getResult();
         }
-        synchronized (nonasyncLock) {
+        lock.lock();
+        try {
+            /*
+             * Result might have been created before get() is called
+             */
+            this.nonAsync = !resultCreated;
             while (nonAsync)
                 try {
-                    nonasyncLock.wait();
+                    resultCondition.await();
                 } catch (InterruptedException e) {
                     log.error("", e);
                 }
+        } finally {
+            lock.unlock();
         }
-        return this.syncFeature;
+        return getResult();
+    }
+
+    private SyncFeature getResult() {
+        SyncFeature delivered = deliveredResult;
+        return delivered != null ? delivered : this.syncFeature;
     }
 
     @Override
@@ -366,12 +620,18 @@ public class SyncHandler extends IoHandlerAdapter {
                 MinaSslFilter sslFilter = new MinaSslFilter(ssl, false);
                 session.getFilterChain().addLast(MinaSslFilter.NAME, sslFilter);
             }
-            session.getFilterChain().addLast("compress_filter",
+            /*
+             * Peers compressing their connections are served the same way, whatever
+             * this member does itself. The filter leaves other connections alone
+             */
+            session.getFilterChain().addLast(MinaCompressionFilter.COMPRESS_FILTER,
                     new MinaCompressionFilter());
             session.getFilterChain().addLast("peer_coder",
                     new ProtocolCodecFilter(new ProtocolCodecFactory() {
-                        private ProtocolDecoder decoder = new SyncMinaDecoder();
-                        private ProtocolEncoder encoder = new SyncMinaEncoder();
+                        private ProtocolDecoder decoder = new SyncMinaDecoder(syncContext.getConfig().getMaxFrameSize(),
+                                syncContext.getCompressionDictionaries());
+                        private ProtocolEncoder encoder = new SyncMinaEncoder(syncContext.getConfig(),
+                                syncContext.getCompressionDictionaries());
 
                         @Override
                         public ProtocolEncoder getEncoder(IoSession arg0) throws Exception {
@@ -383,11 +643,14 @@ public class SyncHandler extends IoHandlerAdapter {
                             return this.decoder;
                         }
                     }));
+            if (callbackFilter != null) {
+                session.getFilterChain().addLast(CallbackExecutor.FILTER_NAME, callbackFilter);
+            }
         }
 
         InetSocketAddress peer1 = ((InetSocketAddress) session.getRemoteAddress());
         link = peer1.getAddress().getHostAddress() + ":" + peer1.getPort();
-        session.setAttribute("startupstate", syncContext.isInStartup());
+        session.setAttribute(STARTUP_STATE_KEY, syncContext.isInStartup());
     }
 
     private SyncMessage createSimpleResponse(byte messageType,
@@ -403,6 +666,13 @@ public class SyncHandler extends IoHandlerAdapter {
         return response;
     }
 
+    /**
+     * @return message telling the listener that the sender ended a conversation
+     */
+    SyncMessage createConversationEnd() {
+        return createSimpleResponse(SyncMessage.TYPE_OK, null, mode);
+    }
+
     private SyncMessage createCompleteResponse(byte messageType,
                                                Boolean startupStateFromSession,
                                                SyncMode syncMode,
@@ -423,16 +693,95 @@ public class SyncHandler extends IoHandlerAdapter {
             if (node != null) {
                 awareIds = node.getAwareIds();
             }
-            responseContents.add(new SyncContent(sc.getKey(), response.getVersion(), awareIds,
-                    response.serialize()));
+            responseContents.add(SyncContent.of(sc.getKey(), response.getVersion(), awareIds, response));
+        }
+    }
+
+    /**
+     * @return members aware of the version of sc, if this member has already synced it
+     * as well, or null
+     */
+    private Set<Short> getAwareNodesIfSynced(SyncContent sc) {
+        if (sc.getVersion() <= 0 || sc.getKey() == null || sc.getKey().equals("")) {
+            return null;
+        }
+        Set<Short> awareNodes = syncContext.getAwareNodes(sc.getKey(), sc.getVersion());
+        return awareNodes != null && awareNodes.contains(me.getId()) ? awareNodes : null;
+    }
+
+    /**
+     * Gives a message created by {@link #encoder} back to it, unless the callback
+     * returned it as a response which is yet to be sent
+     */
+    private void releaseDecoded(IMessage decoded, List<IMessage> responses) {
+        if (responses != null) {
+            for (IMessage response : responses) {
+                if (response == decoded) {
+                    return;
+                }
+            }
         }
+        encoder.release(decoded);
     }
 
-    private boolean decodeGetCallbackResult(ISyncCallback callbak, IoSession session, IMessage decoded, byte[] data, Set<Short> awareIds, SyncProtocolOutput out) {
+    private boolean decodeGetCallbackResult(ISyncCallback callbak, ISession session, IMessage decoded, ByteBuffer data, Set<Short> awareIds, SyncProtocolOutput out) {
         if (data != null) {
             decoded.deserialize(data);
         }
-        return callbak.callBack(new MinaToISession(session), decoded, awareIds, out);
+        return callbak.callBack(session, decoded, awareIds, out);
+    }
+
+    /**
+     * Session attributes of a conversation. Peers not supporting conversations
+     * (id 0) have only one conversation per connection, so plain keys are used
+     */
+    private static String conversationKey(String key, SyncMessage msg) {
+        if (msg.getConversationId() == 0) {
+            return key;
+        }
+        return key + "#" + msg.getConversationId();
+    }
+
+    private Boolean getStartupState(IoSession session, SyncMessage msg) {
+        if (msg.getConversationId() == 0) {
+            return (Boolean) session.getAttribute(STARTUP_STATE_KEY);
+        }
+        String key = conversationKey(STARTUP_STATE_KEY, msg);
+        Boolean state = (Boolean) session.getAttribute(key);
+        if (state == null) {
+            state = syncContext.isInStartup();
+            session.setAttribute(key, state);
+        }
+        return state;
+    }
+
+    private void reply(IoSession session, SyncMessage request, SyncMessage response) {
+        response.setConversationId(request.getConversationId());
+        session.write(response);
+    }
+
+    /**
+     * Removes state of the conversation of msg from session
+     */
+    private void forgetConversation(IoSession session, SyncMessage msg) {
+        if (msg.getConversationId() == 0) {
+            return;
+        }
+        session.removeAttribute(conversationKey(SESSION_INITIATED_KEY, msg));
+        session.removeAttribute(conversationKey(HIM_KEY, msg));
+        session.removeAttribute(conversationKey(STARTUP_STATE_KEY, msg));
+    }
+
+    /**
+     * Ends the conversation of msg. The connection is closed only if the peer
+     * does not support conversations, otherwise it might be in use by others
+     */
+    private void closeConversation(IoSession session, SyncMessage msg, boolean immediately) {
+        if (msg.getConversationId() == 0) {
+            session.close(immediately);
+            return;
+        }
+        forgetConversation(session, msg);
     }
 
     private Set<Short> getAliveMemberIds() {
@@ -485,7 +834,7 @@ public class SyncHandler extends IoHandlerAdapter {
 
     private void handleMessageSyncListener(IoSession session, SyncMessage msg, Member him,
                                            Boolean startupStateFromSession,
-                                           Boolean isFirstMessage) throws IllegalAccessException, InstantiationException {
+                                           Boolean isFirstMessage) {
         /*
          * Here, we check if a communicating edge is valid in our
          * database. If not, don't sync our ZONEs with him.
@@ -511,8 +860,8 @@ public class SyncHandler extends IoHandlerAdapter {
         if (notValidMember) {
             log.error("Communicating edge {} is not valid in my database", id);
             SyncMessage response = createSimpleResponse(SyncMessage.TYPE_NOT_VALID_EDGE, startupStateFromSession, mode);
-            session.write(response);
-            session.close(false);
+            reply(session, msg, response);
+            closeConversation(session, msg, false);
             return;
         }
         //TODO If it is necessary to check cluster here
@@ -522,11 +871,13 @@ public class SyncHandler extends IoHandlerAdapter {
         }
         if (contents == null) {
             log.warn("contents was null fro sync messages from {}", msg.getId());
-            session.close(false);
+            closeConversation(session, msg, false);
             return;
         }
+        ISession iSession = new MinaToISession(session, startupStateFromSession);
         Set<SyncContent> responseContents = new HashSet<>();
         List<IMessage> messagesForRing = new ArrayList<>();
+        Map<IMessage, SyncContent> ringContents = new IdentityHashMap<>();
         boolean isRing = SyncType.checkIfRingType(msg.getSyncType());
 
         Map<String, String> ringMsgToScMap = null;
@@ -535,7 +886,7 @@ public class SyncHandler extends IoHandlerAdapter {
         }
 
         for (SyncContent sc : contents) {
-            byte[] m = sc.getContent();
+            ByteBuffer m = sc.getContentBuffer();
             if (m == null) {
                 //TODO should not check version and see if its OK?
                 //It sounds no because I don't send null
@@ -543,9 +894,25 @@ public class SyncHandler extends IoHandlerAdapter {
                 continue;
             }
 
-            IMessage decoded = this.encoder.newInstance();
+            Set<Short> known = isRing ? null : getAwareNodesIfSynced(sc);
+            if (known != null) {
+                /*
+                 * This version is already here, probably sent again after the sender
+                 * retried. It is acked along with who knows of it, without being
+                 * decoded or given to the callback again
+                 */
+                Set<Short> awareNodes = new HashSet<>(known);
+                if (sc.getAwareIds() != null) {
+                    awareNodes.addAll(sc.getAwareIds());
+                }
+                syncContext.addAwareNodes(sc.getKey(), sc.getVersion(), awareNodes);
+                responseContents.add(new SyncContent(sc.getKey(), sc.getVersion(), awareNodes, null));
+                continue;
+            }
+            syncContext.sampleCompressionPayload(m);
+            IMessage decoded = this.encoder.create();
             SyncProtocolOutput out = new SyncProtocolOutput();
-            boolean result = decodeGetCallbackResult(callbak, session, decoded, m, sc.getAwareIds(), out);
+            boolean result = decodeGetCallbackResult(callbak, iSession, decoded, m, sc.getAwareIds(), out);
             List<IMessage> responses = out.getMessages();
             if (result) {
                 Set<Short> awareNodes = sc.getAwareIds();
@@ -561,7 +928,11 @@ public class SyncHandler extends IoHandlerAdapter {
                     syncContext.addAwareNodes(decoded.getKey(), decoded.getVersion(), awareNodes);
                 }
                 if (isRing) {
+                    /*
+                     * Next members get the bytes we received, so it is not serialized again
+                     */
                     messagesForRing.add(decoded);
+                    ringContents.put(decoded, sc);
                     ringMsgToScMap.put(decoded.getKey(), sc.getKey());
                     log.debug("message for ring {} added", decoded.getKey());
                 } else {
@@ -570,11 +941,12 @@ public class SyncHandler extends IoHandlerAdapter {
                          * responseContents.add(new SyncContent(sc.getKey(),
                                 sc.getVersion(),
                                 awareNodes, null));*/
+                        releaseDecoded(decoded, null);
                         continue;
                     }
                     for (IMessage response : responses) {
                         if (response != null) {
-                            responseContents.add(new SyncContent(sc.getKey(), response.getVersion(), awareNodes, response.serialize()));
+                            responseContents.add(SyncContent.of(sc.getKey(), response.getVersion(), awareNodes, response));
                         }
                     }
                 }
@@ -586,15 +958,19 @@ public class SyncHandler extends IoHandlerAdapter {
                     //means it was not synced successfully
                     responseContents.add(new SyncContent(sc.getKey(), 0,
                             iFailed, null));
+                    releaseDecoded(decoded, null);
                     continue;
                 }
                 for (IMessage response : responses) {
                     if (response != null) {
-                        responseContents.add(new SyncContent(sc.getKey(), response.getVersion(),
-                                syncContext.getAwareNodes(response.getKey(), response.getVersion()), response.serialize()));
+                        responseContents.add(SyncContent.of(sc.getKey(), response.getVersion(),
+                                syncContext.getAwareNodes(response.getKey(), response.getVersion()), response));
                     }
                 }
             }
+            if (!isRing || !result) {
+                releaseDecoded(decoded, responses);
+            }
         }
 
         Set<Short> membersForRingUpdate = null;
@@ -605,8 +981,9 @@ public class SyncHandler extends IoHandlerAdapter {
 
             SyncFeature sf = new SyncHandler(syncContext, type)
                     .withCallBack(callBack)
-                    .withEncoder(encoder)
+                    .withMessageFactory(encoder)
                     .withoutCluster(msg.getId(), syncContext.myId)
+                    .withForwarded(ringContents)
                     .sync(messagesForRing)
                     .get();
 
@@ -615,8 +992,8 @@ public class SyncHandler extends IoHandlerAdapter {
                 SyncMessage m = createSimpleResponse(SyncMessage.TYPE_FAILD_RING,
                         null, SyncMode.SYNC_MESSAGE);
                 log.warn("Synch failed due to null SF");
-                session.write(m);
-                session.close(false);
+                reply(session, msg, m);
+                closeConversation(session, msg, false);
                 return;
             }
             for (IMessage m : messagesForRing) {
@@ -624,23 +1001,25 @@ public class SyncHandler extends IoHandlerAdapter {
                 if (s.isSuccessful()) {
                     SyncProtocolOutput out = new SyncProtocolOutput();
                     Set<Short> awareIds = syncContext.getAwareNodes(m.getKey(), m.getVersion());
-                    boolean result = decodeGetCallbackResult(callbak, session, m, null, awareIds, out);
+                    boolean result = decodeGetCallbackResult(callbak, iSession, m, null, awareIds, out);
                     List<IMessage> responses = out.getMessages();
                     if (!fillCallbackResult(result, m, responseContents, responses, ringMsgToScMap, awareIds, s)) {
+                        releaseDecoded(m, responses);
                         continue;
                     }
 
                     for (IMessage response : responses) {
                         if (response != null) {
-                            responseContents.add(new SyncContent(ringMsgToScMap.get(m.getKey()), response.getVersion(), awareIds,
-                                    response.serialize()));
+                            responseContents.add(SyncContent.of(ringMsgToScMap.get(m.getKey()), response.getVersion(), awareIds, response));
                         }
                     }
+                    releaseDecoded(m, responses);
                 } else {
                     log.debug("{} was not successfully syched with ring with others. Responcing with faild", m.getKey());
                     //means it was not synced successfully
                     responseContents.add(new SyncContent(ringMsgToScMap.get(m.getKey()), 0,
                             s.getFailedMembers(), null));
+                    releaseDecoded(m, null);
                 }
             }
 
@@ -657,7 +1036,8 @@ public class SyncHandler extends IoHandlerAdapter {
 
         if (responseContents.size() == 0) {
             SyncMessage m = createCompleteResponse(SyncMessage.TYPE_OK, null, SyncMode.SYNC_MESSAGE, msg.getSyncType(), (byte) 0);
-            session.write(m);
+            reply(session, msg, m);
+            forgetConversation(session, msg);
             return;
         }
 
@@ -666,10 +1046,11 @@ public class SyncHandler extends IoHandlerAdapter {
         if (isRing && isFirstMessage) {
             m.setExpectedIds(membersForRingUpdate);
         }
-        session.write(m);
+        reply(session, msg, m);
     }
 
-    private void handleClusterSyncListener(IoSession session, SyncMessage msg, Boolean isFirstMessage) {
+    private void handleClusterSyncListener(IoSession session, SyncMessage msg, Boolean startupStateFromSession,
+                                           Boolean isFirstMessage) {
         /*
          * First of all we remove startup flag
          */
@@ -678,7 +1059,7 @@ public class SyncHandler extends IoHandlerAdapter {
         Collection<SyncContent> contents = msg.getContents();
         if (contents == null /*|| contents.size == 0*/) {
             log.warn("Received contents was null. closing session");
-            session.close(false);
+            closeConversation(session, msg, false);
             return;
         }
         boolean isRing = SyncType.checkIfRingType(msg.getSyncType());
@@ -688,10 +1069,11 @@ public class SyncHandler extends IoHandlerAdapter {
         }
 
         ClusterSyncCallback clusterCallback = new ClusterSyncCallback(syncContext);
+        ISession iSession = new MinaToISession(session, startupStateFromSession);
         Collection<SyncContent> responseContents = new ArrayList<>();
         List<IMessage> messagesForRing = new ArrayList<>();
         for (SyncContent sc : contents) {
-            byte[] m = sc.getContent();
+            ByteBuffer m = sc.getContentBuffer();
             if (m == null) {
                 if (sc.getVersion() > 0) {
                     try {
@@ -713,7 +1095,7 @@ public class SyncHandler extends IoHandlerAdapter {
 
             IMessage decoded = new ClusterMessage();
             SyncProtocolOutput out = new SyncProtocolOutput();
-            boolean result = decodeGetCallbackResult(clusterCallback, session, decoded, m, sc.getAwareIds(), out);
+            boolean result = decodeGetCallbackResult(clusterCallback, iSession, decoded, m, sc.getAwareIds(), out);
             List<IMessage> responses = out.getMessages();
             if (result) {
                 if (isRing) {
@@ -740,7 +1122,7 @@ public class SyncHandler extends IoHandlerAdapter {
             nodesForRingUpdate = getAliveMemberIds();
             SyncFeature sf = new SyncHandler(syncContext, type)
                     .withCallBack(callBack)
-                    .withEncoder(encoder)
+                    .withMessageFactory(encoder)
                     .withoutCluster(msg.getId(), syncContext.myId)
                     .withModeCluster()
                     .sync(messagesForRing)
@@ -749,8 +1131,8 @@ public class SyncHandler extends IoHandlerAdapter {
                 //TODO is this right?
                 SyncMessage m = createCompleteResponse(SyncMessage.TYPE_FAILD_RING, null, SyncMode.SYNC_CLUSTER, msg.getSyncType(), (byte) -1);
                 log.warn("sync failed due to null SF");
-                session.write(m);
-                session.close(false);
+                reply(session, msg, m);
+                closeConversation(session, msg, false);
                 return;
             }
 
@@ -767,7 +1149,7 @@ public class SyncHandler extends IoHandlerAdapter {
                     if (member != null) {
                         awareIds = member.getAwareIds();
                     }
-                    boolean result = decodeGetCallbackResult(clusterCallback, session, m, null, awareIds, out);
+                    boolean result = decodeGetCallbackResult(clusterCallback, iSession, m, null, awareIds, out);
                     List<IMessage> responses = out.getMessages();
                     fillCallbackResult(result, m, responseContents, responses, ringMsgToScMap, awareIds, s);
                     for (IMessage response : responses) {
@@ -777,8 +1159,7 @@ public class SyncHandler extends IoHandlerAdapter {
                             if (member != null) {
                                 awareIds = member.getAwareIds();
                             }
-                            responseContents.add(new SyncContent(ringMsgToScMap.get(m.getKey()), response.getVersion(), awareIds,
-                                    response.serialize()));
+                            responseContents.add(SyncContent.of(ringMsgToScMap.get(m.getKey()), response.getVersion(), awareIds, response));
                         }
                     }
                 } else {
@@ -796,7 +1177,8 @@ public class SyncHandler extends IoHandlerAdapter {
 
         if (responseContents.size() == 0) {
             SyncMessage m = createCompleteResponse(SyncMessage.TYPE_OK, null, SyncMode.SYNC_CLUSTER, msg.getSyncType(), (byte) 0);
-            session.write(m);
+            reply(session, msg, m);
+            forgetConversation(session, msg);
             return;
         }
 
@@ -805,45 +1187,46 @@ public class SyncHandler extends IoHandlerAdapter {
         if (isRing && isFirstMessage) {
             m.setExpectedIds(nodesForRingUpdate);
         }
-        session.write(m);
+        reply(session, msg, m);
         if (log.isDebugEnabled()) {
             log.debug("Message responded with contents {}, type {}, sequence {}", responseContents, m.getType(), m.getSequence());
         }
     }
 
-    private void handleListener(IoSession session, SyncMessage msg, String peer) throws IllegalAccessException, InstantiationException {
-        Boolean startupStateFromSession = (Boolean) session.getAttribute("startupstate");
+    private void handleListener(IoSession session, SyncMessage msg, String peer) {
+        Boolean startupStateFromSession = getStartupState(session, msg);
         if (msg.getType() == SyncMessage.TYPE_OK) {
             log.debug("Returned type OK");
-            session.close(false);
+            closeConversation(session, msg, false);
             return;
         } else if (msg.isInStartup() && startupStateFromSession) {
             log.error("Peer {} and I both were in statup", peer);
-            session.write(createSimpleResponse(SyncMessage.TYPE_BOTH_STARTUP, startupStateFromSession, mode));
-            session.close(false);
+            reply(session, msg, createSimpleResponse(SyncMessage.TYPE_BOTH_STARTUP, startupStateFromSession, mode));
+            closeConversation(session, msg, false);
             return;
         } else if (msg.getType() == SyncMessage.TYPE_BAD_ID) {
             log.error("Got TYPE_BAD_ID sync response from {}. My Id is {}", peer, me.getId());
-            session.close(true);
+            closeConversation(session, msg, true);
             return;
         } else if (msg.getType() == SyncMessage.TYPE_BAD_SEQ) {
             log.error("{} and I could not get aggried on syncing out zones", peer);
-            session.close(true);
+            closeConversation(session, msg, true);
             return;
         } else if (msg.getSequence() > SyncMessage.SEQ_MAX) {
             log.error("Too many conversion between peer {}", peer);
-            session.write(createSimpleResponse(SyncMessage.TYPE_BAD_SEQ, startupStateFromSession, mode));
-            session.close(true);
+            reply(session, msg, createSimpleResponse(SyncMessage.TYPE_BAD_SEQ, startupStateFromSession, mode));
+            closeConversation(session, msg, true);
             return;
         } else if (msg.getType() == SyncMessage.TYPE_FAILD_RING) {
             log.error("Got TYPE_FAILD_RING sync response from {} ", peer);
-            session.close(true);
+            closeConversation(session, msg, true);
             return;
         }
 
         boolean isFirstMessage = false;
-        if (!session.containsAttribute(SESSION_INITIATED_KEY)) {
-            session.setAttribute(SESSION_INITIATED_KEY, true);
+        String initiatedKey = conversationKey(SESSION_INITIATED_KEY, msg);
+        if (!session.containsAttribute(initiatedKey)) {
+            session.setAttribute(initiatedKey, true);
             isFirstMessage = true;
             if (me.getKey() != null) {
                 if (!CollectionHelper
@@ -852,18 +1235,23 @@ public class SyncHandler extends IoHandlerAdapter {
                     log.error("Got wrong sync message from {} with wrong keychain:{}", peer, msg.getKeyChain());
                     log.error("my keychain:{}", me.getKeyChain());
                     SyncMessage response = createSimpleResponse(SyncMessage.TYPE_BAD_KEY, startupStateFromSession, mode);
-                    session.write(response);
+                    reply(session, msg, response);
+                    /*
+                     * Whoever brings a wrong key can not use this
+                     * connection for any other conversation either
+                     */
                     session.close(true);
                     return;
                 }
             }
         }
 
-        Member him = (Member) session.getAttribute(HIM_KEY);
+        String himKey = conversationKey(HIM_KEY, msg);
+        Member him = (Member) session.getAttribute(himKey);
         if (him == null) {
             him = syncContext.getMemberById(msg.getId());
             log.debug("Received node was {} for id {} in my database", him, msg.getId());
-            session.setAttribute(HIM_KEY, him);
+            session.setAttribute(himKey, him);
         }
 
         if (him != null && him.isDown()) {
@@ -878,12 +1266,77 @@ public class SyncHandler extends IoHandlerAdapter {
         if (msg.getSyncMode() == SyncMode.SYNC_MESSAGE) {
             handleMessageSyncListener(session, msg, him, startupStateFromSession, isFirstMessage);
         } else if (msg.getSyncMode() == SyncMode.SYNC_CLUSTER) {
-            handleClusterSyncListener(session, msg, isFirstMessage);
+            handleClusterSyncListener(session, msg, startupStateFromSession, isFirstMessage);
+        }
+    }
+
+    /**
+     * What the callback returned for a received content
+     */
+    private static final class Answer {
+        private final boolean result;
+        private final List<IMessage> responses;
+        private final IMessage decoded;
+
+        private Answer(boolean result, List<IMessage> responses, IMessage decoded) {
+            this.result = result;
+            this.responses = responses;
+            this.decoded = decoded;
+        }
+    }
+
+    /**
+     * @return true if msg carries contents for the callback rather than ending the conversation
+     */
+    private static boolean carriesContents(SyncMessage msg) {
+        switch (msg.getType()) {
+            case SyncMessage.TYPE_OK:
+            case SyncMessage.TYPE_BOTH_STARTUP:
+            case SyncMessage.TYPE_NOT_VALID_EDGE:
+            case SyncMessage.TYPE_BAD_ID:
+            case SyncMessage.TYPE_BAD_SEQ:
+            case SyncMessage.TYPE_BAD_KEY:
+            case SyncMessage.TYPE_FAILD_RING:
+                return false;
+            default:
+                return msg.getSequence() <= SyncMessage.SEQ_MAX && msg.getContents() != null;
+        }
+    }
+
+    /**
+     * Gives contents of a reply to the callback. This is done before stateLock is
+     * taken, so a slow callback holds up only its own conversation
+     */
+    private Map<SyncContent, Answer> answer(IoSession session, SyncMessage msg) {
+        if (!carriesContents(msg)) {
+            return Collections.emptyMap();
+        }
+        Map<SyncContent, Answer> answers = new IdentityHashMap<>();
+        boolean cluster = msg.getSyncMode() != SyncMode.SYNC_MESSAGE;
+        ISyncCallback callback = cluster ? new ClusterSyncCallback(syncContext) : callbak;
+        for (SyncContent sc : msg.getContents()) {
+            ByteBuffer m = sc.getContentBuffer();
+            if (m == null && (!cluster || sc.getVersion() > 0)) {
+                continue;
+            }
+            IMessage decoded = cluster ? new ClusterMessage() : this.encoder.create();
+            SyncProtocolOutput out = new SyncProtocolOutput();
+            boolean result = decodeGetCallbackResult(callback, new MinaToISession(session), decoded, m, sc.getAwareIds(), out);
+            List<IMessage> responses = out.getMessages();
+            if (!cluster) {
+                releaseDecoded(decoded, responses);
+                decoded = null;
+            }
+            answers.put(sc, new Answer(result, responses, decoded));
         }
+        return answers;
     }
 
-    private void handleSender(IoSession session, SyncMessage msg, String peer) throws IllegalAccessException, InstantiationException {
-        SyncSession sync = (SyncSession) session.getAttribute("SyncSession");
+    private void handleSender(IoSession session, SyncSession sync, SyncMessage msg, String peer,
+                              Map<SyncContent, Answer> answers) {
+        if (cancelled || sync.isCancelled()) {
+            return;
+        }
         boolean isRing = SyncType.checkIfRingType(this.sync);
         if (isRing) {
             if (log.isDebugEnabled()) {
@@ -897,49 +1350,62 @@ public class SyncHandler extends IoHandlerAdapter {
         }
 
         if (msg.getType() == SyncMessage.TYPE_OK) {
+            sync.setDone();
             numberOfTrieds++;
+            if (!isRing) {
+                /*
+                 * Member accepted everything it has not refused before
+                 */
+                for (Entry<String, SyncResult> e : syncFeature.entrySet()) {
+                    if (!e.getValue().getFailedMembers().contains(msg.getId())) {
+                        setSynced(e.getKey(), e.getValue(), msg.getId());
+                    }
+                }
+            }
+            defer(() -> sync.endConversation(session));
             createResult();
-            session.setAttribute("planned_close");
-            session.close(false);
             return;
         } else if (msg.getType() == SyncMessage.TYPE_BOTH_STARTUP) {
             log.warn("Got TYPE_BOTH_STARTUP sync responce from {} ", peer);
-            workCallback(sync, STATE_UNPROPER, link);
+            defer(() -> sync.endConversation(session));
+            workCallback(sync, STATE_UNPROPER, sync.getLink());
             return;
         } else if (msg.getType() == SyncMessage.TYPE_NOT_VALID_EDGE) {
             log.warn("Got TYPE_NOT_VALID_EDGE sync responce from {} ", peer);
-            workCallback(sync, STATE_UNPROPER, link);
+            defer(() -> sync.endConversation(session));
+            workCallback(sync, STATE_UNPROPER, sync.getLink());
             return;
         } else if (msg.getType() == SyncMessage.TYPE_BAD_ID) {
             log.warn("Got TYPE_BAD_ID sync responce from {} ", peer);
-            workCallback(sync, STATE_UNPROPER, link);
+            defer(() -> sync.endConversation(session));
+            workCallback(sync, STATE_UNPROPER, sync.getLink());
             return;
         } else if (msg.getType() == SyncMessage.TYPE_BAD_SEQ) {
             log.warn("Got TYPE_BAD_SEQ sync responce from {}", peer);
-            workCallback(sync, STATE_UNPROPER, link);
+            defer(() -> sync.endConversation(session));
+            workCallback(sync, STATE_UNPROPER, sync.getLink());
             return;
         } else if (msg.getType() == SyncMessage.TYPE_BAD_KEY) {
             log.warn("Got BAD_KEY sync responce from {} my key chain of him was:{}", peer, sync.getMember().getKeyChain());
-            workCallback(sync, STATE_UNPROPER, link);
-            session.setAttribute("planned_close");
-            session.close(false);
+            workCallback(sync, STATE_UNPROPER, sync.getLink());
+            defer(() -> sync.endConversation(session));
             return;
         }
         if (msg.getSequence() > SyncMessage.SEQ_MAX) {
             log.warn("Too many conversion between peer {}", peer);
             SyncMessage response = createSimpleResponse(SyncMessage.TYPE_BAD_SEQ, startupState, mode);
-            session.write(response);
-            session.setAttribute("planned_close");
-            session.close(false);
-            workCallback(sync, STATE_UNPROPER, link);
+            defer(() -> {
+                reply(session, msg, response);
+                sync.endConversation(session);
+            });
+            workCallback(sync, STATE_UNPROPER, sync.getLink());
             return;
         }
 
         if (msg.getType() == SyncMessage.TYPE_FAILD_RING) {
             log.warn("Got TYPE_FAILD_RING sync responce from {} ", peer);
-            workCallback(sync, STATE_UNPROPER, link);
-            session.setAttribute("planned_close");
-            session.close(false);
+            workCallback(sync, STATE_UNPROPER, sync.getLink());
+            defer(() -> sync.endConversation(session));
             return;
         }
 
@@ -952,9 +1418,8 @@ public class SyncHandler extends IoHandlerAdapter {
 					 * so I replaced them with workCallback()
 					 * numberOfTrieds ++;
 					createResult();*/
-                session.setAttribute("planned_close");
-                session.close(false);
-                workCallback(sync, STATE_UNPROPER, link);
+                defer(() -> sync.abandonConversation(session));
+                workCallback(sync, STATE_UNPROPER, sync.getLink());
                 return;
             }
 
@@ -963,7 +1428,7 @@ public class SyncHandler extends IoHandlerAdapter {
             int numberOfNull = 0;
 
             for (SyncContent sc : contents) {
-                byte[] m = sc.getContent();
+                ByteBuffer m = sc.getContentBuffer();
                 if (m == null) {
                     Set<Short> awareMembers = sc.getAwareIds();
                     if (awareMembers == null) {
@@ -972,7 +1437,7 @@ public class SyncHandler extends IoHandlerAdapter {
                     awareMembers.add(msg.getId());
                     SyncResult sr = syncFeature.get(sc.getKey());
                     if (sc.getVersion() > 0) {
-                        fillSyncResultForVersionBiggerThan0(msg, isRing, awareMembers, sr);
+                        fillSyncResultForVersionBiggerThan0(msg, isRing, awareMembers, sc.getKey(), sr);
                         awareMembers.add(me.getId());
                         if (sc.getKey() != null && !sc.getKey().equals("")) {
                             syncContext.addAwareNodes(sc.getKey(), sc.getVersion(), awareMembers);
@@ -985,10 +1450,9 @@ public class SyncHandler extends IoHandlerAdapter {
                     continue;
                 }
 
-                IMessage decoder = this.encoder.newInstance();
-                SyncProtocolOutput out = new SyncProtocolOutput();
-                boolean result = decodeGetCallbackResult(callbak, session, decoder, m, sc.getAwareIds(), out);
-                List<IMessage> responses = out.getMessages();
+                Answer answer = answers.get(sc);
+                boolean result = answer.result;
+                List<IMessage> responses = answer.responses;
 
                 if (!result) {
                     if (isRing) {
@@ -998,8 +1462,8 @@ public class SyncHandler extends IoHandlerAdapter {
                         for (IMessage response : responses) {
                             if (response != null) {
                                 Set<Short> awareNodes = syncContext.getAwareNodes(response.getKey(), response.getVersion());
-                                responseContents.add(new SyncContent(response.getKey(), response.getVersion(),
-                                        awareNodes, response.serialize()));
+                                responseContents.add(SyncContent.of(response.getKey(), response.getVersion(),
+                                        awareNodes, response));
                             }
                         }
                     } else {
@@ -1026,8 +1490,8 @@ public class SyncHandler extends IoHandlerAdapter {
                         for (IMessage response : responses) {
                             if (response != null) {
                                 awareNodes = syncContext.getAwareNodes(response.getKey(), response.getVersion());
-                                responseContents.add(new SyncContent(sc.getKey(), response.getVersion(),
-                                        awareNodes, response.serialize()));
+                                responseContents.add(SyncContent.of(sc.getKey(), response.getVersion(),
+                                        awareNodes, response));
                             }
                         }
                     }
@@ -1040,7 +1504,7 @@ public class SyncHandler extends IoHandlerAdapter {
                 }
             }
 
-            if (checkAndPrepareFailedResult(session, isRing, responseContents, failedContents, numberOfNull)) {
+            if (checkAndPrepareFailedResult(session, sync, isRing, responseContents, failedContents, numberOfNull)) {
                 return;
             }
 
@@ -1051,7 +1515,7 @@ public class SyncHandler extends IoHandlerAdapter {
 
             SyncMessage m = createCompleteResponse(SyncMessage.TYPE_CHECK, null, SyncMode.SYNC_MESSAGE, this.sync, (byte) (msg.getSequence() + 1));
             m.setContents(responseContents);
-            session.write(m);
+            defer(() -> reply(session, msg, m));
         } else {
             Collection<SyncContent> contents = msg.getContents();
             if (contents == null) {
@@ -1061,9 +1525,8 @@ public class SyncHandler extends IoHandlerAdapter {
 					 * so I replaced them with workCallback()
 					 * numberOfTrieds ++;
 					createResult();*/
-                session.setAttribute("planned_close");
-                session.close(true);
-                workCallback(sync, STATE_UNPROPER, link);
+                defer(() -> sync.abandonConversation(session));
+                workCallback(sync, STATE_UNPROPER, sync.getLink());
                 return;
             }
 
@@ -1073,10 +1536,9 @@ public class SyncHandler extends IoHandlerAdapter {
 
             Set<SyncContent> responseContents = new HashSet<>();
             Map<String, SyncContent> faildContents = new HashMap<>();
-            ClusterSyncCallback clusterCallback = new ClusterSyncCallback(syncContext);
             int numberOfNull = 0;
             for (SyncContent sc : contents) {
-                byte[] m = sc.getContent();
+                ByteBuffer m = sc.getContentBuffer();
                 if (m == null) {
                     Set<Short> awareNodes = sc.getAwareIds();
                     if (awareNodes == null) {
@@ -1086,7 +1548,7 @@ public class SyncHandler extends IoHandlerAdapter {
 
                     if (sc.getVersion() > 0) {
                         SyncResult sr = syncFeature.get(sc.getKey());
-                        fillSyncResultForVersionBiggerThan0(msg, isRing, awareNodes, sr);
+                        fillSyncResultForVersionBiggerThan0(msg, isRing, awareNodes, sc.getKey(), sr);
                         try {
                             Member member = syncContext.getMemberById(Short.parseShort(sc.getKey()));
                             if (member != null) {
@@ -1104,10 +1566,10 @@ public class SyncHandler extends IoHandlerAdapter {
                     handleNullDataOfStarterHandler(msg, isRing, faildContents, sc, awareNodes, sr);
                 }
 
-                ClusterMessage decoded = new ClusterMessage();
-                SyncProtocolOutput out = new SyncProtocolOutput();
-                boolean result = decodeGetCallbackResult(clusterCallback, session, decoded, m, sc.getAwareIds(), out);
-                List<IMessage> responses = out.getMessages();
+                Answer answer = answers.get(sc);
+                ClusterMessage decoded = (ClusterMessage) answer.decoded;
+                boolean result = answer.result;
+                List<IMessage> responses = answer.responses;
 
                 if (!result) {
                     if (isRing) {
@@ -1145,8 +1607,8 @@ public class SyncHandler extends IoHandlerAdapter {
                             if (node != null) {
                                 awareIds = node.getAwareIds();
                             }
-                            responseContents.add(new SyncContent(sc.getKey(), response.getVersion(),
-                                    awareIds, response.serialize()));
+                            responseContents.add(SyncContent.of(sc.getKey(), response.getVersion(),
+                                    awareIds, response));
                         }
                     }
                     /*else {
@@ -1160,7 +1622,7 @@ public class SyncHandler extends IoHandlerAdapter {
                 }
             }
 
-            if (checkAndPrepareFailedResult(session, isRing, responseContents, faildContents, numberOfNull)) return;
+            if (checkAndPrepareFailedResult(session, sync, isRing, responseContents, faildContents, numberOfNull)) return;
 
             /* Here in message sync, we don't send originators key chain back either.
              * This way, an edge will accept zone synchronizations from an unknown Edge.
@@ -1168,14 +1630,14 @@ public class SyncHandler extends IoHandlerAdapter {
              * response.setKeyChain(him.getKeyChain());*/
             SyncMessage m = createCompleteResponse(SyncMessage.TYPE_CHECK, null, SyncMode.SYNC_CLUSTER, this.sync, (byte) (msg.getSequence() + 1));
             m.setContents(responseContents);
-            session.write(m);
+            defer(() -> reply(session, msg, m));
             if (log.isDebugEnabled()) {
                 log.debug("message responded {}, type {}, sequence {}", responseContents, m.getType(), m.getSequence());
             }
         }
     }
 
-    private boolean checkAndPrepareFailedResult(IoSession session, boolean isRing, Set<SyncContent> responseContents, Map<String, SyncContent> faildContents, int numberOfNull) {
+    private boolean checkAndPrepareFailedResult(IoSession session, SyncSession sync, boolean isRing, Set<SyncContent> responseContents, Map<String, SyncContent> faildContents, int numberOfNull) {
         if (isRing) {
             if (this.expectedNodes.size() == 0) {
                 this.syncContents = faildContents;
@@ -1185,10 +1647,10 @@ public class SyncHandler extends IoHandlerAdapter {
         int responsesSize = responseContents.size();
         log.debug("responsesSize = {}, numberOfNull = {}", responsesSize, numberOfNull);
         if (responsesSize == 0 || numberOfNull == responsesSize) {
+            sync.setDone();
             numberOfTrieds++;
+            defer(() -> sync.abandonConversation(session));
             createResult();
-            session.setAttribute("planned_close");
-            session.close(false);
             return true;
         }
         return false;
@@ -1204,16 +1666,14 @@ public class SyncHandler extends IoHandlerAdapter {
                 for (short id : ids) {
                     memberId = id;
                     if (expectedIds.contains(memberId)) {
-                        r.removeFailedMember(memberId);
-                        r.addSyncedMember(memberId);
+                        setSynced(sc.getKey(), r, memberId);
                     }
                 }
             } else {
                 for (short id : ids) {
                     memberId = id;
                     if (awareNodes.contains(memberId)) {
-                        r.removeFailedMember(memberId);
-                        r.addSyncedMember(memberId);
+                        setSynced(sc.getKey(), r, memberId);
                     }
                 }
             }
@@ -1236,13 +1696,11 @@ public class SyncHandler extends IoHandlerAdapter {
         if (isRing && awareNodes != null) {
             for (short id : ids) {
                 if (awareNodes.contains(id)) {
-                    sr.addFailedMember(id);
-                    sr.removeSyncedMember(id);
+                    setFailed(sc.getKey(), sr, id);
                 }
             }
         } else {
-            sr.addFailedMember(msg.getId());
-            sr.removeSyncedMember(msg.getId());
+            setFailed(sc.getKey(), sr, msg.getId());
         }
         numberOfNull++;
         responseContents.add(new SyncContent(sc.getKey(),
@@ -1255,33 +1713,70 @@ public class SyncHandler extends IoHandlerAdapter {
         if (isRing) {
             for (short id : ids) {
                 if (awareMembers.contains(id)) {
-                    sr.addFailedMember(id);
-                    sr.removeSyncedMember(id);
+                    setFailed(sc.getKey(), sr, id);
                 }
             }
         } else {
-            sr.addFailedMember(msg.getId());
-            sr.removeSyncedMember(msg.getId());
+            setFailed(sc.getKey(), sr, msg.getId());
         }
 
         log.warn("Content {} failed", sc.getKey());
         faildContents.put(sc.getKey(), this.syncContents.get(sc.getKey()));
     }
 
-    private void fillSyncResultForVersionBiggerThan0(SyncMessage msg, boolean isRing, Set<Short> awareNodes, SyncResult sr) {
+    private void fillSyncResultForVersionBiggerThan0(SyncMessage msg, boolean isRing, Set<Short> awareNodes, String key, SyncResult sr) {
         if (isRing) {
             for (short id : ids) {
                 if (awareNodes.contains(id)) {
-                    sr.addSyncedMember(id);
-                    sr.removeFailedMember(id);
+                    setSynced(key, sr, id);
                 }
             }
         } else {
-            sr.addSyncedMember(msg.getId());
-            sr.removeFailedMember(msg.getId());
+            setSynced(key, sr, msg.getId());
         }
     }
 
+    private void setSynced(String key, SyncResult sr, short id) {
+        boolean changed = !sr.getSyncedMembers().contains(id);
+        sr.addSyncedMember(id);
+        sr.removeFailedMember(id);
+        ISyncProgressListener listener = progressListener;
+        if (!changed || listener == null) {
+            return;
+        }
+        boolean quorumReached = isQuorumType() && countOf(sr.getSyncedMembers()) * 2 > ids.length && quorumKeys.add(key);
+        tell(key, () -> {
+            listener.synced(key, id);
+            if (quorumReached) {
+                listener.quorumReached(key);
+            }
+        });
+    }
+
+    private void setFailed(String key, SyncResult sr, short id) {
+        boolean changed = !sr.getFailedMembers().contains(id);
+        sr.addFailedMember(id);
+        sr.removeSyncedMember(id);
+        ISyncProgressListener listener = progressListener;
+        if (!changed || listener == null) {
+            return;
+        }
+        tell(key, () -> listener.failed(key, id));
+    }
+
+    /*
+     * Progress of key is told in order of changes, once stateLock is released
+     */
+    private void tell(String key, Runnable event) {
+        defer(() -> {
+            try {
+                event.run();
+            } catch (Exception e) {
+                log.error("Progress listener failed for {}", key, e);
+            }
+        });
+    }
+
     @Override
     public void messageReceived(IoSession session, Object message)
             throws Exception {
@@ -1324,8 +1819,18 @@ public class SyncHandler extends IoHandlerAdapter {
 		}*/
         if (!isSender) {
             handleListener(session, msg, peer);
-        } else {
-            handleSender(session, msg, peer);
+            return;
+        }
+        SyncSession sync = SyncTransport.getConversation(session, msg);
+        if (cancelled || sync.isCancelled()) {
+            return;
+        }
+        Map<SyncContent, Answer> answers = answer(session, msg);
+        stateLock.lock();
+        try {
+            handleSender(session, sync, msg, peer, answers);
+        } finally {
+            unlockState();
         }
     }
 
@@ -1339,25 +1844,31 @@ public class SyncHandler extends IoHandlerAdapter {
         } else {
             log.error("", cause);
         }
-
-        if (isSender) {
-            InetSocketAddress peer = ((InetSocketAddress) session.getRemoteAddress());
-            String link = peer.getAddress().getHostAddress() + ":" + peer.getPort();
-            SyncSession sync = (SyncSession) session.getAttribute("SyncSession");
-            workCallback(sync, STATE_WORK_FAILED, link);
+        if (cause instanceof ProtocolDecoderException) {
+            /*
+             * Rest of the stream can not be framed anymore
+             */
+            session.close(true);
         }
+        /*
+         * Failures of sender sessions are handled by SyncTransport for
+         * all the conversations sharing the connection
+         */
     }
 
-    @Override
-    public void sessionClosed(IoSession session) {
-        if (isSender && !session.containsAttribute("planned_close")) {
-            SyncSession sync = (SyncSession) session.getAttribute("SyncSession");
-            log.debug("Session unexpectly closed. Starting close worker");
-            workCallback(sync, STATE_UNPROPER, link);
+    public void workCallback(SyncSession session, byte state, String link_ip) {
+        stateLock.lock();
+        try {
+            handleWork(session, state, link_ip);
+        } finally {
+            unlockState();
         }
     }
 
-    public void workCallback(SyncSession session, byte state, String link_ip) {
+    private void handleWork(SyncSession session, byte state, String link_ip) {
+        if (cancelled || session.isCancelled()) {
+            return;
+        }
         switch (sync) {
             case RING:
             case RING_QUORUM:
@@ -1395,6 +1906,7 @@ public class SyncHandler extends IoHandlerAdapter {
                         if (sync != SyncType.UNICAST_ONE_OF) {
                             this.expectedNodes.remove(session.getMemberId());
                         }
+                        session.setDone();
                         numberOfTrieds++;
                         addFaildNodeToSynchFeatures(session.getMember().getId());
                     }
@@ -1411,6 +1923,7 @@ public class SyncHandler extends IoHandlerAdapter {
                         if (sync != SyncType.UNICAST_ONE_OF) {
                             this.expectedNodes.remove(session.getMemberId());
                         }
+                        session.setDone();
                         numberOfTrieds++;
                         addFaildNodeToSynchFeatures(session.getMember().getId());
                         failureOrUnproperSocketWorkAround();
@@ -1430,6 +1943,7 @@ public class SyncHandler extends IoHandlerAdapter {
                     if (member != null && member.getState() == Member.STATE_DEL) {
                         log.warn("Setting edge {} as DOWN", member.getId());
                         syncContext.synchronizedStateChange(member, Member.STATE_DWN);
+                        session.setDone();
                         numberOfTrieds++;
                         addFaildNodeToSynchFeatures(member.getId());
                         break;
@@ -1446,9 +1960,10 @@ public class SyncHandler extends IoHandlerAdapter {
                                     SyncMessage.TYPE_CHECK,
                                     startupState, mode, sync, (byte) -1);
                             message.setContents(this.syncContents.values());
-                            session.sendMsg(message);
+                            defer(() -> session.sendMsg(message));
                             return;
                         } else {
+                            session.setDone();
                             numberOfTrieds++;
                             addFaildNodeToSynchFeatures(session.getMember().getId());
                         }
@@ -1463,6 +1978,7 @@ public class SyncHandler extends IoHandlerAdapter {
                                 return;
                             }
                             session.setImproper(true);
+                            session.setDone();
                             numberOfTrieds++;
                             addFaildNodeToSynchFeatures(session.getMember().getId());
                         }
@@ -1504,107 +2020,282 @@ public class SyncHandler extends IoHandlerAdapter {
                 SyncMessage.TYPE_CHECK,
                 startupState, mode, sync, (byte) -1);
         message.setContents(this.syncContents.values());
-        sessions.get(currentSocket)
-                .sendMsg(message);
+        SyncSession next = sessions.get(currentSocket);
+        defer(() -> next.sendMsg(message));
     }
 
     private void createResult() {
-        //TODO seems wrong for ring in balance mode
-        if (sessions == null || (this.expectedNodes != null &&
-                this.expectedNodes.size() == 0) ||
-                ids == null || numberOfTrieds == ids.length ||
-                (numberOfTrieds > 0 && this.sync == SyncType.UNICAST_ONE_OF)) {
-            int syncingNodesLength = ids == null ? 0 : ids.length;
-            boolean isQuorum = sync == SyncType.UNICAST_QUORUM ||
-                    sync == SyncType.RING_QUORUM ||
-                    sync == SyncType.RING_BALANCE_QUORUM ||
-                    sync == SyncType.UNICAST_BALANCE_QUORUM;
-            for (Entry<String, SyncResult> eit : syncFeature.entrySet()) {
-                SyncResult s = eit.getValue();
-                if (isQuorum) {
-                    if (syncingNodesLength == 0) {
-                        s.setSuccessful(false);
-                    } else if (s.getFailedMembers().size() * 2 < syncingNodesLength) {
-                        s.setSuccessful(true);
-                    } else if (s.getSyncedMembers().size() * 2 > syncingNodesLength) {
-                        s.setSuccessful(true);
-                    } else {
-                        s.setSuccessful(false);
-                    }
-                } else {
-                    if (syncingNodesLength == 0) {
-                        s.setSuccessful(false);
-                    } else if (s.getSyncedMembers().size() > s.getFailedMembers().size()) {
-                        s.setSuccessful(true);
-                    } else if (sync == SyncType.UNICAST_ONE_OF
-                            && s.getFailedMembers().size() > 0) {
-                        s.setSuccessful(false);
-                    } else if (s.getFailedMembers().size() < syncingNodesLength) {
-                        s.setSuccessful(true);
-                    } else {
-                        s.setSuccessful(false);
-                    }
+        stateLock.lock();
+        try {
+            decideResult();
+        } finally {
+            unlockState();
+        }
+    }
+
+    /**
+     * Has task done once stateLock is released. Sends, ending of sessions and results
+     * are deferred, so that neither user code nor locks of sessions are reached under it
+     */
+    private void defer(Runnable task) {
+        deferred.add(task);
+    }
+
+    /**
+     * Releases stateLock. The outermost holder then does the deferred tasks, unless
+     * another thread is doing them already. Tasks are done one at a time in the order
+     * they were deferred, including the ones deferred meanwhile
+     */
+    private void unlockState() {
+        boolean drain = stateLock.getHoldCount() == 1 && !draining && !deferred.isEmpty();
+        if (drain) {
+            draining = true;
+        }
+        stateLock.unlock();
+        while (drain) {
+            Runnable task;
+            stateLock.lock();
+            try {
+                task = deferred.poll();
+                draining = drain = task != null;
+            } finally {
+                stateLock.unlock();
+            }
+            if (task != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("", e);
                 }
-                log.debug("Synch result for {} = {}", eit.getKey(), s.isSuccessful());
             }
+        }
+    }
+
+    private void giveResult(SyncFeature syncFeature) {
+        CompletableFuture<SyncFeature> f = future;
+        if (f != null) {
+            f.complete(syncFeature);
+            return;
+        }
 
-            if (nonAsync) {
-                synchronized (nonasyncLock) {
+        ReentrantLock lock = nonasyncLock;
+        if (lock != null) {
+            lock.lock();
+            try {
+                resultCreated = true;
+                if (nonAsync) {
                     nonAsync = false;
-                    nonasyncLock.notify();
+                    resultCondition.signalAll();
                     return;
                 }
+            } finally {
+                lock.unlock();
             }
+        }
+
+        if (callbak != null) {
+            callbak.result(syncFeature);
+        }
+    }
+
+    private void decideResult() {
+        if (cancelled) {
+            return;
+        }
+        //TODO seems wrong for ring in balance mode
+        boolean done = expired || sessions == null || (this.expectedNodes != null &&
+                this.expectedNodes.size() == 0) ||
+                ids == null || numberOfTrieds == ids.length ||
+                (numberOfTrieds > 0 && this.sync == SyncType.UNICAST_ONE_OF);
+        if (!resultDelivered.get() && (done || isQuorumDecided())) {
+            deliverResult(!done);
+        }
+        if (done || (resultDelivered.get() && syncContext.getConfig().getQuorumStragglers()
+                == SyncConfig.QuorumStragglers.CANCEL)) {
+            return;
+        }
+        if (this.expectedNodes != null && this.syncContents.size() > 0) {
+            /*
+             * Ring stragglers of an early decided quorum fail over to other links as well
+             */
+            failOverRing();
+        }
+    }
 
-            if (callbak != null) {
-                callbak.result(syncFeature);
+    /**
+     * Decides success of each message and makes a copy of syncFeature the pending result
+     *
+     * @param early whether members are still syncing
+     */
+    private void deliverResult(boolean early) {
+        if (!resultDelivered.compareAndSet(false, true)) {
+            return;
+        }
+        if (early) {
+            finishStragglers();
+        } else {
+            WheelTimer.Timeout d = syncDeadline;
+            if (d != null) {
+                d.cancel();
             }
-        } else if (this.expectedNodes != null && this.syncContents.size() > 0) {
-            //means it is ring but something has not done completely
-            currentSocket = (++currentSocket) % sessions.size();
-            log.warn("Using {}nd link of {} links", currentSocket + 1, sessions.size());
-            int last_socket = currentSocket;
-            while (sessions
-                    .get(currentSocket)
-                    .isAllTried()
-                    || unProperSockets
-                    .contains(currentSocket)
-                    || !this.expectedNodes.contains(sessions
-                    .get(currentSocket).getMemberId())) {
-
-                if (currentSocket == last_socket) {
-                    log.error("All linkes tried with no success. Synchnig failed");
-                    //TODO I commented this in 14 APR 16
-                    //syncContext.inStartup = false;
-                    /*callbak.result(ids, false);*/
-                    sessions = null;
-                    /*
-                     * In zone synchronizing, lastModified is always 0
-                     * so this is safe to call
-                     */
-                    fixMonitorLastModified();
-                    createResult();
-                    return;
+        }
+        SyncFeature syncFeature = new SyncFeature();
+        for (Entry<String, SyncResult> e : this.syncFeature.entrySet()) {
+            SyncResult s = new SyncResult();
+            s.addSyncedMember(e.getValue().getSyncedMembers());
+            s.addFailedMember(e.getValue().getFailedMembers());
+            syncFeature.put(e.getKey(), s);
+        }
+        int syncingNodesLength = ids == null ? 0 : ids.length;
+        boolean isQuorum = sync == SyncType.UNICAST_QUORUM ||
+                sync == SyncType.RING_QUORUM ||
+                sync == SyncType.RING_BALANCE_QUORUM ||
+                sync == SyncType.UNICAST_BALANCE_QUORUM;
+        for (Entry<String, SyncResult> eit : syncFeature.entrySet()) {
+            SyncResult s = eit.getValue();
+            if (isQuorum) {
+                if (syncingNodesLength == 0) {
+                    s.setSuccessful(false);
+                } else if (s.getFailedMembers().size() * 2 < syncingNodesLength) {
+                    s.setSuccessful(true);
+                } else if (s.getSyncedMembers().size() * 2 > syncingNodesLength) {
+                    s.setSuccessful(true);
+                } else {
+                    s.setSuccessful(false);
+                }
+            } else {
+                if (syncingNodesLength == 0) {
+                    s.setSuccessful(false);
+                } else if (s.getSyncedMembers().size() > s.getFailedMembers().size()) {
+                    s.setSuccessful(true);
+                } else if (sync == SyncType.UNICAST_ONE_OF
+                        && s.getFailedMembers().size() > 0) {
+                    s.setSuccessful(false);
+                } else if (s.getFailedMembers().size() < syncingNodesLength) {
+                    s.setSuccessful(true);
+                } else {
+                    s.setSuccessful(false);
                 }
-                currentSocket = (++currentSocket) % sessions.size();
             }
+            log.debug("Synch result for {} = {}", eit.getKey(), s.isSuccessful());
+        }
+
+        deliveredResult = syncFeature;
+        defer(() -> giveResult(syncFeature));
+    }
+
+    private void failOverRing() {
+        //means it is ring but something has not done completely
+        int last_socket = currentSocket;
+        currentSocket = (++currentSocket) % sessions.size();
+        log.warn("Using {}nd link of {} links", currentSocket + 1, sessions.size());
+        while (sessions
+                .get(currentSocket)
+                .isAllTried()
+                || unProperSockets
+                .contains(currentSocket)
+                || !this.expectedNodes.contains(sessions
+                .get(currentSocket).getMemberId())) {
+
+            if (currentSocket == last_socket) {
+                log.error("All linkes tried with no success. Synchnig failed");
+                //TODO I commented this in 14 APR 16
+                //syncContext.inStartup = false;
+                /*callbak.result(ids, false);*/
+                sessions = null;
+                /*
+                 * In zone synchronizing, lastModified is always 0
+                 * so this is safe to call
+                 */
+                fixMonitorLastModified();
+                createResult();
+                return;
+            }
+            currentSocket = (++currentSocket) % sessions.size();
+        }
+
+        SyncMessage message = new SyncMessage();
+        message.setId(me.getId());
+        message.setInStartup(startupState);
+        message.setSyncMode(mode);
+        message.setSyncType(this.sync);
+        message.setType(SyncMessage.TYPE_CHECK);
+        message.setContents(this.syncContents.values());
+        SyncSession next = sessions.get(currentSocket);
+        defer(() -> next.sendMsg(message));
+    }
+
+    /**
+     * @return true if this is a quorum sync, which is not balanced, and every message
+     * in it is either synced with a majority of members or failed with so many that it
+     * can no longer be
+     */
+    private boolean isQuorumDecided() {
+        if (!isQuorumType() || syncFeature == null || syncFeature.isEmpty()) {
+            return false;
+        }
+        for (SyncResult s : syncFeature.values()) {
+            int synced = countOf(s.getSyncedMembers());
+            int failed = countOf(s.getFailedMembers());
+            if (synced * 2 <= ids.length && (ids.length - failed) * 2 > ids.length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if this is a quorum sync which is not balanced, so its members are
+     * all in ids
+     */
+    private boolean isQuorumType() {
+        return (sync == SyncType.UNICAST_QUORUM || sync == SyncType.RING_QUORUM) && !withBalance
+                && ids != null && ids.length > 0;
+    }
+
+    /**
+     * @return number of members of this sync in members
+     */
+    private int countOf(Set<Short> members) {
+        int count = 0;
+        for (short id : ids) {
+            if (members.contains(id)) {
+                count++;
+            }
+        }
+        return count;
+    }
 
-            SyncMessage message = new SyncMessage();
-            message.setId(me.getId());
-            message.setInStartup(startupState);
-            message.setSyncMode(mode);
-            message.setSyncType(this.sync);
-            message.setType(SyncMessage.TYPE_CHECK);
-            message.setContents(this.syncContents.values());
-            sessions.get(currentSocket)
-                    .sendMsg(message);
+    /**
+     * Applies the straggler policy to members not done when the quorum got decided
+     */
+    private void finishStragglers() {
+        if (syncContext.getConfig().getQuorumStragglers() == SyncConfig.QuorumStragglers.CANCEL) {
+            WheelTimer.Timeout d = syncDeadline;
+            if (d != null) {
+                d.cancel();
+            }
+            List<SyncSession> s = sessions;
+            if (s != null) {
+                for (SyncSession session : s) {
+                    if (!session.isDone()) {
+                        defer(session::cancel);
+                    }
+                }
+            }
         }
+        log.debug("Quorum is decided before all members are done");
     }
 
+    /*
+     * Session of member id failed. Keys it already acked stay synced
+     */
     private void addFaildNodeToSynchFeatures(Short id) {
         for (Entry<String, SyncResult> stringSynchResultEntry : syncFeature.entrySet()) {
             SyncResult s = stringSynchResultEntry.getValue();
-            s.addFailedMember(id);
+            if (!s.getSyncedMembers().contains(id)) {
+                setFailed(stringSynchResultEntry.getKey(), s, id);
+            }
         }
     }
 
@@ -1620,17 +2311,22 @@ public class SyncHandler extends IoHandlerAdapter {
             private short count = 0;
 
             @Override
-            public synchronized void result(SyncFeature syncFeature) {
-                count++;
-                if (syncFeature != null) {
-                    SyncHandler.this.syncFeature.putAll(syncFeature);
-                }
+            public void result(SyncFeature syncFeature) {
+                stateLock.lock();
+                try {
+                    count++;
+                    if (syncFeature != null) {
+                        SyncHandler.this.syncFeature.putAll(syncFeature);
+                    }
 
-                if (count == SyncHandler.this.ids.length) {
-                    SyncHandler.this.numberOfTrieds = count;
-                    SyncHandler.this.createResult();
-                    //inside createResult we call callback
-                    //SyncHandler.this.callbak.result(SyncHandler.this.syncFeature);
+                    if (count == SyncHandler.this.ids.length) {
+                        SyncHandler.this.numberOfTrieds = count;
+                        SyncHandler.this.createResult();
+                        //inside createResult we call callback
+                        //SyncHandler.this.callbak.result(SyncHandler.this.syncFeature);
+                    }
+                } finally {
+                    unlockState();
                 }
             }
 
@@ -1685,9 +2381,12 @@ public class SyncHandler extends IoHandlerAdapter {
                 SyncHandler h = new SyncHandler(syncContext, this.sync)
                         .withCluster(ee.getKey())
                         .withCallBack(callBackHandler)
-                        .withEncoder(this.encoder)
+                        .withMessageFactory(this.encoder)
                         .withBalance();
                 h.mode = this.mode;
+                h.timeout = this.timeout;
+                h.progressListener = this.progressListener;
+                children.add(h);
                 h.sync(ee.getValue());
             }
 
@@ -1779,9 +2478,12 @@ public class SyncHandler extends IoHandlerAdapter {
                                     .withCluster(ArrayUtils.toPrimitive(ee.getValue()
                                             .toArray(new Short[0])))
                                     .withCallBack(callBackHandler)
-                                    .withEncoder(this.encoder)
+                                    .withMessageFactory(this.encoder)
                                     .withBalance();
                             h.mode = this.mode;
+                            h.timeout = this.timeout;
+                            h.progressListener = this.progressListener;
+                            children.add(h);
                             h.sync(ee.getKey());
                         }
 
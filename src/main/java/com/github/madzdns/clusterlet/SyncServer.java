@@ -3,6 +3,7 @@ package com.github.madzdns.clusterlet;
 import com.github.madzdns.clusterlet.Member.ClusterAddress;
 import com.github.madzdns.clusterlet.config.SocketBindConfig;
 import com.github.madzdns.clusterlet.config.SocketConfig;
+import com.github.madzdns.clusterlet.config.SocketOptions;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
 
@@ -16,6 +17,7 @@ public class SyncServer {
     private SyncHandler handler;
     private SyncContext syncContext;
     private NioSocketAcceptor socket;
+    private CallbackExecutor callbacks;
 
     public SyncServer(SyncHandler handler, SocketBindConfig syncBindings) {
         this.syncBindings = Objects.requireNonNull(syncBindings);
@@ -30,9 +32,17 @@ public class SyncServer {
         if (socket != null) {
             throw new IllegalStateException("socket is already activated");
         }
-        socket = new NioSocketAcceptor();
+        SocketOptions options = syncBindings.getSocketOptions();
+        if (options == null) {
+            options = new SocketOptions();
+        }
+        socket = new NioSocketAcceptor(options.getProcessorCount());
         socket.setHandler(handler);
         socket.setReuseAddress(true);
+        socket.setBacklog(options.getBacklog());
+        options.applyTo(socket.getSessionConfig());
+        callbacks = CallbackExecutor.create("clusterlet-listener", syncContext.getConfig());
+        handler.callbackFilter = callbacks == null ? null : callbacks.getFilter();
         List<SocketAddress> addz = new ArrayList<>();
         for (SocketConfig s : syncBindings.getSocketConfigs()) {
             if (s.getIp().equals(SocketConfig.ANY)) {
@@ -113,5 +123,16 @@ public class SyncServer {
         }
         socket.unbind();
         socket.dispose();
+        if (callbacks != null) {
+            callbacks.shutdown();
+        }
+    }
+
+    /**
+     * @return queue of received events waiting for callback threads or
+     * null if the server is not started or callbacks run on I/O threads
+     */
+    public synchronized CallbackQueue getCallbackQueue() {
+        return callbacks == null ? null : callbacks.getQueue();
     }
 }
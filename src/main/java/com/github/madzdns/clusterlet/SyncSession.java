@@ -1,15 +1,20 @@
 package com.github.madzdns.clusterlet;
 
 import java.net.ConnectException;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 
 import javax.net.ssl.SSLContext;
 
 import com.github.madzdns.clusterlet.codec.SyncMessage;
+import com.github.madzdns.clusterlet.config.SyncConfig;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.core.future.ConnectFuture;
 import org.apache.mina.core.future.IoFutureListener;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.filter.executor.ExecutorFilter;
 import org.apache.mina.filter.ssl.SslFilter;
 
 import com.github.madzdns.clusterlet.Member.ClusterAddress;
@@ -20,16 +25,26 @@ import com.github.madzdns.clusterlet.codec.mina.SyncMinaEncoder;
 
 @Slf4j
 class SyncSession {
+    static final String SESSION_KEY = "SyncSession";
+
     class MinaConnectListener implements IoFutureListener<ConnectFuture> {
         private String link = "";
         private SyncMessage msg;
+        private AddressStats stats;
+        private long startedAt = System.nanoTime();
 
-        public MinaConnectListener(SyncMessage msg) {
+        public MinaConnectListener(SyncMessage msg, ClusterAddress address) {
             this.msg = msg;
+            this.stats = handler.syncContext.getLatencyTracker().get(getMemberId(), address);
         }
 
         @Override
         public void operationComplete(ConnectFuture connection) {
+            if (connection.isConnected()) {
+                stats.connected(System.nanoTime() - startedAt);
+            } else {
+                stats.failed();
+            }
             Throwable e = connection.getException();
             if (e != null) {
                 if (e instanceof ConnectException) {
@@ -43,9 +58,12 @@ class SyncSession {
                 handler.workCallback(SyncSession.this, SyncHandler.STATE_WORK_FAILED, link);
 
             } else {
-                connection.getSession().setAttribute("SyncSession", SyncSession.this);
+                IoSession session = connection.getSession();
+                session.setAttribute(SESSION_KEY, SyncSession.this);
                 log.debug("Connection is stablished in link {} ", link);
-                connection.getSession().write(msg);
+                if (attach(session)) {
+                    session.write(msg);
+                }
             }
         }
 
@@ -58,29 +76,185 @@ class SyncSession {
         }
     }
 
+    /**
+     * Connects to all the addresses of the member at the same time, starting from
+     * the current one. Each connect is started {@link SyncConfig#getConnectStaggerDelay()}
+     * milliseconds after the previous one, or as soon as all the started ones failed.
+     * The first connection wins, the others get cancelled or closed
+     */
+    class ConnectRace {
+        private final SyncMessage msg;
+        private final int first;
+        private final long stagger;
+        private final List<ConnectFuture> attempts = new ArrayList<>();
+        private int started = 0;
+        private int failed = 0;
+        private boolean done = false;
+        private WheelTimer.Timeout nextAttempt = null;
+
+        ConnectRace(SyncMessage msg) {
+            this.msg = msg;
+            this.first = currentSocket;
+            this.stagger = Math.max(0, handler.syncContext.getConfig().getConnectStaggerDelay());
+        }
+
+        void start() {
+            launchNext();
+        }
+
+        private void launchNext() {
+            int index;
+            synchronized (this) {
+                if (done || started == sockets.size()) {
+                    return;
+                }
+                if (nextAttempt != null) {
+                    nextAttempt.cancel();
+                    nextAttempt = null;
+                }
+                index = (first + started++) % sockets.size();
+            }
+            SyncSocket socket = null;
+            AddressStats stats = handler.syncContext.getLatencyTracker().get(getMemberId(), sockets.get(index));
+            long startedAt = System.nanoTime();
+            try {
+                socket = newSocket(sockets.get(index));
+                socket.connect(future -> {
+                    if (future.isConnected()) {
+                        stats.connected(System.nanoTime() - startedAt);
+                    } else if (!future.isCanceled()) {
+                        stats.failed();
+                    }
+                    onComplete(index, future);
+                });
+                synchronized (this) {
+                    attempts.add(socket.getConnectFuture());
+                    if (done) {
+                        socket.getConnectFuture().cancel();
+                        return;
+                    }
+                    if (started < sockets.size()) {
+                        nextAttempt = handler.syncContext.getTransport().schedule(this::launchNext, stagger);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("{} to member {}", e.getMessage(), getMemberId());
+                /*
+                 * Once the connect is initiated, its listener reports the failure
+                 */
+                if (socket == null || socket.getConnectFuture() == null) {
+                    onFailure();
+                }
+            }
+        }
+
+        private void onComplete(int index, ConnectFuture future) {
+            if (!future.isConnected()) {
+                Throwable e = future.getException();
+                if (e != null && !(e instanceof ConnectException)) {
+                    log.error("", e);
+                } else if (e != null) {
+                    log.error("{} to member {}", e.getMessage(), getMemberId());
+                }
+                onFailure();
+                return;
+            }
+            IoSession session = future.getSession();
+            synchronized (this) {
+                if (done) {
+                    session.close(true);
+                    return;
+                }
+                done = true;
+                if (nextAttempt != null) {
+                    nextAttempt.cancel();
+                    nextAttempt = null;
+                }
+                for (ConnectFuture attempt : attempts) {
+                    if (attempt != future && !attempt.cancel() && attempt.isConnected()) {
+                        attempt.getSession().close(true);
+                    }
+                }
+            }
+            useSocket(index);
+            log.debug("Connection is stablished in link {} ", link);
+            if (attach(session)) {
+                session.write(msg);
+            }
+        }
+
+        private void onFailure() {
+            boolean lost;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                failed++;
+                lost = failed == sockets.size();
+                done = lost;
+            }
+            if (lost) {
+                allTried = true;
+                handler.workCallback(SyncSession.this, SyncHandler.STATE_WORK_FAILED, link);
+            } else {
+                launchNext();
+            }
+        }
+    }
+
     private int currentSocket = 0;
     private int lastSocket = 0;
     private List<ClusterAddress> sockets;
+    /*
+     * Addresses in the order of the member. sockets holds the same
+     * addresses in the order they are tried
+     */
+    private final List<ClusterAddress> addresses;
     private Object mutx = new Object();
     private SyncHandler handler;
     private Member member;
     private boolean allTried = false;
     private boolean improper = false;
     final Object improperMutex = new Object();
+    private final int conversationId;
+    /*
+     * Connection this conversation is currently using
+     */
+    private IoSession ioSession = null;
+    private String link = "";
+    private volatile AddressStats sentTo = null;
+    private volatile boolean cancelled = false;
+    private volatile boolean done = false;
+    private volatile long sentAt = 0;
 
     public SyncSession(Member member, SyncHandler handler) {
-        this.sockets = new ArrayList<>(member.getSyncAddresses());
+        this.addresses = new ArrayList<>(member.getSyncAddresses());
         this.handler = handler;
         this.member = member;
+        this.conversationId = handler.syncContext.getTransport().nextConversationId();
 
-        if (this.sockets.size() == 0) {
+        if (this.addresses.size() == 0) {
+            this.sockets = new ArrayList<>();
             member.setCurrentSocketIndex(currentSocket = -1);
         } else {
-            currentSocket = member.getCurrentSocketIndex();
+            /*
+             * Lowest latency healthy address is tried first
+             */
+            this.sockets = handler.syncContext.getLatencyTracker()
+                    .rank(member.getId(), addresses, member.getCurrentSocketIndex());
+            currentSocket = 0;
             lastSocket = currentSocket;
         }
     }
 
+    /**
+     * @return index of sockets[socket] in addresses of the member
+     */
+    private int memberIndex(int socket) {
+        int index = addresses.indexOf(sockets.get(socket));
+        return index < 0 ? socket : index;
+    }
+
     public void setupNextSocket() throws Exception {
         if (currentSocket == -1) {
             log.error("No Socket Containers is defind");
@@ -91,7 +265,7 @@ class SyncSession {
         if (log.isDebugEnabled()) {
             log.debug("Setting next socket {}:{} of edge {}", c.getAddress().getHostAddress(), c.getPort(), member.getId());
         }
-        member.setCurrentSocketIndex(currentSocket);
+        member.setCurrentSocketIndex(memberIndex(currentSocket));
         if (currentSocket == lastSocket) {
             allTried = true;
         }
@@ -106,55 +280,287 @@ class SyncSession {
     }
 
     public void sendMsg(SyncMessage msg) {
+        SyncMessage message;
+        ClusterAddress currentEdgeSocketAddr;
+        ConnectRace connectRace = null;
+        /*
+         * Connecting and reporting failures happen out of mutx, since
+         * handler might hold its own lock while calling this session
+         */
         synchronized (mutx) {
-            if (currentSocket > -1
-                    && handler != null) {
-                ClusterAddress currentEdgeSocketAddr = sockets.get(currentSocket);
-                SyncSocket socket =
-                        new SyncSocket(currentEdgeSocketAddr.getAddress().getHostAddress(),
-                                currentEdgeSocketAddr.getPort());
-                socket.setHandler(handler);
+            if (cancelled) {
+                return;
+            }
+            if (currentSocket < 0 || handler == null) {
+                message = null;
+                currentEdgeSocketAddr = null;
+            } else {
+                currentEdgeSocketAddr = sockets.get(currentSocket);
+                /*
+                 * The same message might be sent to other members at the same time,
+                 * so per member fields are set on a copy
+                 */
+                message = msg.duplicate();
+                message.setConversationId(conversationId);
                 if (!member.isAuthByKey()) {
                     log.warn("no need to authenticate by key for member {}", getMemberId());
-                    msg.setKeyChain(null);
+                    message.setKeyChain(null);
                 } else {
-                    msg.setKeyChain(member.getKeyChain());
+                    message.setKeyChain(member.getKeyChain());
                 }
 
-                if (member.isUseSsl()) {
-                    String cer = handler.syncContext.getConfig().getCertificatePath();
-                    SSLContext ssl = null;
-                    if (cer == null) {
-                        ssl = NetProvider.getClientSslContext();
-                        log.warn("Could not find any certificate file. Using SSL without verification enable");
-                    } else {
-                        ssl = NetProvider.getClientSslContext(cer);
+                link = currentEdgeSocketAddr.getAddress().getHostAddress() + ":" + currentEdgeSocketAddr.getPort();
+                SyncTransport transport = handler.syncContext.getTransport();
+                boolean race = sockets.size() > 1 && handler.syncContext.getConfig()
+                        .getConnectStrategy() == SyncConfig.ConnectStrategy.PARALLEL;
+                IoSession pooled = transport.acquire(member.getId(), currentEdgeSocketAddr);
+                for (int i = 1; race && pooled == null && i < sockets.size(); i++) {
+                    int index = (currentSocket + i) % sockets.size();
+                    pooled = transport.acquire(member.getId(), sockets.get(index));
+                    if (pooled != null) {
+                        useSocket(index);
                     }
-
-                    if (ssl != null) {
-                        SslFilter sslFilter = new SslFilter(ssl);
-                        sslFilter.setUseClientMode(true);
-                        socket.setFilter("ssl_filter", sslFilter);
+                }
+                if (pooled != null) {
+                    log.debug("Reusing connection of link {} for conversation {}", link, conversationId);
+                    if (attach(pooled)) {
+                        pooled.write(message);
                     }
+                    return;
                 }
+                if (race) {
+                    connectRace = new ConnectRace(message);
+                }
+            }
+        }
+        if (message == null) {
+            if (handler != null) {
+                handler.workCallback(this, SyncHandler.STATE_WORK_FAILED, "");
+            }
+            return;
+        }
 
-                socket.setFilter("compress_filter",
-                        new MinaCompressionFilter());
+        try {
+            if (connectRace != null) {
+                connectRace.start();
+                return;
+            }
+            SyncSocket socket = newSocket(currentEdgeSocketAddr);
+            socket.connect(this.new MinaConnectListener(message, currentEdgeSocketAddr));
+        } catch (Exception e) {
+            log.error("", e);
+            handler.workCallback(this, SyncHandler.STATE_WORK_FAILED,
+                    currentEdgeSocketAddr.getAddress().getHostAddress());
+        }
+    }
 
-                socket.setFilter("syncSocket_codec",
-                        new SyncMinaEncoder(),
-                        new SyncMinaDecoder());
-                try {
-                    socket.connect(this.new MinaConnectListener(msg));
-                } catch (Exception e) {
-                    log.error("", e);
-                    handler.workCallback(this, SyncHandler.STATE_WORK_FAILED,
-                            currentEdgeSocketAddr.getAddress().getHostAddress());
+    private SyncSocket newSocket(ClusterAddress address) {
+        SyncSocket socket = handler.syncContext.getTransport()
+                .newSocket(address.getAddress().getHostAddress(), address.getPort());
+        final String poolKey = SyncTransport.poolKey(member.getId(), address);
+        socket.setSessionInitializer((session, future) -> {
+            session.setAttribute(SESSION_KEY, this);
+            SyncTransport.setPoolKey(session, poolKey);
+        });
+        return socket;
+    }
+
+    /**
+     * Makes address at index the current one of this session and its member
+     */
+    private void useSocket(int index) {
+        synchronized (mutx) {
+            currentSocket = index;
+            lastSocket = index;
+            member.setCurrentSocketIndex(memberIndex(index));
+            ClusterAddress address = sockets.get(index);
+            link = address.getAddress().getHostAddress() + ":" + address.getPort();
+        }
+    }
+
+    /**
+     * @return false if this session is cancelled, in which case
+     * nothing should be written to session for it
+     */
+    private boolean attach(IoSession session) {
+        SyncTransport transport = handler.syncContext.getTransport();
+        synchronized (mutx) {
+            if (cancelled) {
+                transport.detach(session, this);
+                return false;
+            }
+            if (ioSession != null && ioSession != session) {
+                transport.detach(ioSession, this);
+            }
+            ioSession = session;
+            transport.attach(session, this);
+            return true;
+        }
+    }
+
+    /**
+     * Stops this session. Its conversation is ended and nothing
+     * is sent nor reported for it anymore
+     */
+    void cancel() {
+        synchronized (mutx) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            if (ioSession != null) {
+                tellConversationEnd(ioSession);
+                ioSession.removeAttribute(SESSION_KEY, this);
+                handler.syncContext.getTransport().detach(ioSession, this);
+                ioSession = null;
+            }
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true if the result of the member of this session is known
+     */
+    boolean isDone() {
+        return done;
+    }
+
+    void setDone() {
+        this.done = true;
+    }
+
+    /**
+     * Ends this conversation on session. The connection itself is closed
+     * only if it is not pooled and no other conversation is using it
+     *
+     * @param session the connection this conversation took place on
+     */
+    void endConversation(IoSession session) {
+        if (session == null) {
+            return;
+        }
+        synchronized (mutx) {
+            if (ioSession == session) {
+                ioSession = null;
+            }
+        }
+        /*
+         * A pooled connection outlives its first conversation
+         */
+        session.removeAttribute(SESSION_KEY, this);
+        handler.syncContext.getTransport().detach(session, this);
+    }
+
+    /**
+     * Ends this conversation on session while the peer still waits for it.
+     * The peer is told about it, so it drops what it keeps for the conversation
+     *
+     * @param session the connection this conversation took place on
+     */
+    void abandonConversation(IoSession session) {
+        if (session == null) {
+            return;
+        }
+        tellConversationEnd(session);
+        endConversation(session);
+    }
+
+    /*
+     * Peers not supporting conversations learn it by the connection getting closed
+     */
+    private void tellConversationEnd(IoSession session) {
+        if (SyncTransport.isMultiplexed(session) && session.isConnected() && !session.isClosing()) {
+            SyncMessage end = handler.createConversationEnd();
+            end.setConversationId(conversationId);
+            session.write(end);
+        }
+    }
+
+    /**
+     * Called when a message of this conversation is written to the peer
+     */
+    void messageSent() {
+        synchronized (mutx) {
+            if (currentSocket > -1) {
+                sentTo = handler.syncContext.getLatencyTracker().get(getMemberId(), sockets.get(currentSocket));
+            }
+        }
+        sentAt = System.nanoTime();
+    }
+
+    /**
+     * Called when a message of this conversation is received from the peer
+     */
+    void messageReceived() {
+        AddressStats stats = sentTo;
+        long at = sentAt;
+        if (stats != null && at != 0) {
+            stats.roundTrip(System.nanoTime() - at);
+            sentAt = 0;
+        }
+    }
+
+    int getConversationId() {
+        return conversationId;
+    }
+
+    String getLink() {
+        return link;
+    }
+
+    /**
+     * Adds filters of this member to the chain of a newly created outbound session.
+     * Since the connector is shared among all members, filters depending on the
+     * member (like ssl) can not be added to the connector itself
+     *
+     * @param session newly created session
+     */
+    void buildFilterChain(IoSession session) {
+        if (member.isUseSsl()) {
+            String cer = handler.syncContext.getConfig().getCertificatePath();
+            SSLContext ssl = null;
+            if (cer == null) {
+                ssl = NetProvider.getClientSslContext();
+                log.warn("Could not find any certificate file. Using SSL without verification enable");
+            } else {
+                ssl = NetProvider.getClientSslContext(cer);
+            }
+
+            if (ssl != null) {
+                /*
+                 * Cached TLS sessions are looked up by peer host and port, so without
+                 * this, sessions of the shared context would never get resumed.
+                 * Address is left unresolved to avoid a reverse lookup by the engine
+                 */
+                InetSocketAddress peer = (InetSocketAddress) session.getRemoteAddress();
+                if (peer != null) {
+                    session.setAttribute(SslFilter.PEER_ADDRESS,
+                            InetSocketAddress.createUnresolved(peer.getAddress().getHostAddress(), peer.getPort()));
                 }
-            } else if (handler != null) {
-                handler.workCallback(this, SyncHandler.STATE_WORK_FAILED, "");
+                SslFilter sslFilter = new SslFilter(ssl);
+                sslFilter.setUseClientMode(true);
+                session.getFilterChain().addLast("ssl_filter", sslFilter);
             }
         }
+
+        SyncConfig config = handler.syncContext.getConfig();
+        /*
+         * Peers compressing their connections stop doing it once they receive
+         * uncompressed bytes. Until they do, what they send is still inflated
+         */
+        session.getFilterChain().addLast(MinaCompressionFilter.COMPRESS_FILTER,
+                new MinaCompressionFilter(config.getCompression() == SyncConfig.Compression.STREAM));
+        session.getFilterChain().addLast("syncSocket_codec",
+                new ProtocolCodecFilter(new SyncMinaEncoder(config, handler.syncContext.getCompressionDictionaries()),
+                        new SyncMinaDecoder(config.getMaxFrameSize(), handler.syncContext.getCompressionDictionaries())));
+
+        ExecutorFilter callbacks = handler.syncContext.getTransport().getCallbackFilter();
+        if (callbacks != null) {
+            session.getFilterChain().addLast(CallbackExecutor.FILTER_NAME, callbacks);
+        }
     }
 
     public SyncHandler getHandler() {
@@ -9,6 +9,7 @@ import org.apache.mina.core.future.IoFutureListener;
 import org.apache.mina.core.future.WriteFuture;
 import org.apache.mina.core.service.IoHandler;
 import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.session.IoSessionInitializer;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.filter.codec.ProtocolDecoder;
 import org.apache.mina.filter.codec.ProtocolEncoder;
@@ -28,6 +29,16 @@ public class SyncSocket {
 	
 	private int port=0;
 	
+	/*
+	 * When the connector is shared between sockets, it must not
+	 * be altered nor disposed by any of them
+	 */
+	private boolean sharedConnector = false;
+	
+	private IoSessionInitializer<ConnectFuture> sessionInitializer = null;
+	
+	private ConnectFuture connectFuture = null;
+	
 	IoFutureListener<ConnectFuture> listener;
 	
 	
@@ -46,16 +57,18 @@ public class SyncSocket {
 			
 			if(local == null)
 				
-				cf = socket.connect(new InetSocketAddress(remote, port));
+				cf = socket.connect(new InetSocketAddress(remote, port), sessionInitializer);
 			
 			else
 				
-				cf = socket.connect(new InetSocketAddress(remote, port),new InetSocketAddress(local,0));
+				cf = socket.connect(new InetSocketAddress(remote, port),new InetSocketAddress(local,0), sessionInitializer);
 			
 			if(cf == null)
 				
 				throw new IOException("Could not initiate connect to "+remote+":"+port+" through "+local);
 			
+			connectFuture = cf;
+			
 			if(listener == null) {	
 				
 				cf.await();
@@ -97,21 +110,70 @@ public class SyncSocket {
 		socket = new NioSocketConnector();
 	}
 	
+	/**
+	 * Creates a socket that connects through an already configured connector.
+	 * Handler and filters of such a socket are the ones of the connector and
+	 * can not be changed using this socket
+	 * @param connector shared connector
+	 * @param remote
+	 * @param port
+	 */
+	public SyncSocket(NioSocketConnector connector, String remote, int port) {
+		
+		this.remote = remote;
+		
+		this.port = port;
+		
+		this.socket = connector;
+		
+		this.sharedConnector = true;
+	}
+	
 	public void setHandler(IoHandler handler) {
 		
+		checkNotShared();
+		
 		socket.setHandler(handler);
 	}
 	
 	public void setFilter(String name,ProtocolEncoder encoder,ProtocolDecoder decoder) {
 		
+		checkNotShared();
+		
 		socket.getFilterChain().addLast(name, new ProtocolCodecFilter(encoder, decoder));
 	}
 	
 	public void setFilter(String name,IoFilter filter) {
 		
+		checkNotShared();
+		
 		socket.getFilterChain().addLast(name,filter);
 	}
 	
+	/**
+	 * @param sessionInitializer is called for the new session before any of
+	 * its events get fired
+	 */
+	public void setSessionInitializer(IoSessionInitializer<ConnectFuture> sessionInitializer) {
+		
+		this.sessionInitializer = sessionInitializer;
+	}
+	
+	/**
+	 * @return future of the last connect of this socket or null if it is not connected yet
+	 */
+	public ConnectFuture getConnectFuture() {
+		
+		return connectFuture;
+	}
+	
+	private void checkNotShared() {
+		
+		if(sharedConnector)
+			
+			throw new IllegalStateException("Connector of this socket is shared");
+	}
+	
 	public IoSession send(Object message) throws Exception {
 		
 		if(session == null||
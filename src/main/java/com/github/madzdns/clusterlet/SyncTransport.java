@@ -0,0 +1,359 @@
+package com.github.madzdns.clusterlet;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.madzdns.clusterlet.Member.ClusterAddress;
+import com.github.madzdns.clusterlet.codec.SyncMessage;
+import com.github.madzdns.clusterlet.codec.mina.FrameTooLargeException;
+import com.github.madzdns.clusterlet.config.SocketOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.service.SimpleIoProcessorPool;
+import org.apache.mina.core.session.IdleStatus;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.transport.socket.nio.NioProcessor;
+import org.apache.mina.transport.socket.nio.NioSession;
+import org.apache.mina.transport.socket.nio.NioSocketConnector;
+
+/**
+ * Outbound side of a {@link SyncContext}. All the {@link SyncSession}s of all
+ * sender {@link SyncHandler}s connect through the single connector of this class,
+ * so there is only one set of selectors and processor threads per context no matter
+ * how many members a sync is fanned out to.
+ * <p>
+ * Connections are kept open and pooled per member address once the peer has shown
+ * that it understands conversation ids. Every {@link SyncSession} is a conversation
+ * and many conversations can share a pooled connection. Since both the connector and
+ * the connections are shared, the {@link org.apache.mina.core.service.IoHandler} of this
+ * class only dispatches events to the {@link SyncHandler} of the conversation they belong to
+ */
+@Slf4j
+class SyncTransport {
+    /*
+     * Seconds a pooled connection can stay open without any traffic
+     */
+    static final int POOLED_IDLE_TIME = 60;
+
+    private static final String CONVERSATIONS_KEY = "_conversations." + SyncTransport.class;
+    private static final String POOL_KEY = "_poolkey." + SyncTransport.class;
+    private static final String MULTIPLEXED_KEY = "_multiplexed." + SyncTransport.class;
+
+    private final SimpleIoProcessorPool<NioSession> processors;
+    private final NioSocketConnector connector;
+    private final Map<String, IoSession> pool = new ConcurrentHashMap<>();
+    private final AtomicInteger conversationIds = new AtomicInteger();
+    private final WheelTimer timer = new WheelTimer("clusterlet-timer");
+    private final ExecutorService timerTasks = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "clusterlet-timer-task");
+        t.setDaemon(true);
+        return t;
+    });
+    private final CallbackExecutor callbacks;
+    private volatile boolean disposed = false;
+
+    SyncTransport() {
+        this(new SocketOptions());
+    }
+
+    SyncTransport(SocketOptions options) {
+        this(options, null);
+    }
+
+    /**
+     * @param callbacks runs events of sender handlers. If null, they run on I/O threads
+     */
+    SyncTransport(SocketOptions options, CallbackExecutor callbacks) {
+        this.callbacks = callbacks;
+        this.processors = new SimpleIoProcessorPool<>(NioProcessor.class, options.getProcessorCount());
+        this.connector = new NioSocketConnector(processors);
+        this.connector.setHandler(new Dispatcher());
+        this.connector.setConnectTimeoutMillis(options.getConnectTimeout());
+        options.applyTo(this.connector.getSessionConfig());
+        this.connector.getSessionConfig().setIdleTime(IdleStatus.BOTH_IDLE, POOLED_IDLE_TIME);
+    }
+
+    /**
+     * @return filter moving events to callback threads or null if they run on I/O threads
+     */
+    ExecutorFilter getCallbackFilter() {
+        return callbacks == null ? null : callbacks.getFilter();
+    }
+
+    CallbackQueue getCallbackQueue() {
+        return callbacks == null ? null : callbacks.getQueue();
+    }
+
+    /**
+     * Runs task after delay milliseconds. The timer wheel of this transport only fires
+     * it, the task itself runs on a pooled thread, since it might run user code
+     */
+    WheelTimer.Timeout schedule(Runnable task, long delay) {
+        return timer.newTimeout(() -> {
+            try {
+                timerTasks.execute(task);
+            } catch (RejectedExecutionException e) {
+                log.debug("Transport is disposed. Dropping timer task");
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param remote address of the remote member
+     * @param port   port of the remote member
+     * @return a new socket which connects through the shared connector
+     */
+    SyncSocket newSocket(String remote, int port) {
+        if (disposed) {
+            throw new IllegalStateException("transport is already disposed");
+        }
+        return new SyncSocket(connector, remote, port);
+    }
+
+    /**
+     * @return a new conversation id. It is never 0, since 0 means
+     * there is no conversation id
+     */
+    int nextConversationId() {
+        int id;
+        do {
+            id = conversationIds.incrementAndGet();
+        } while (id == 0);
+        return id;
+    }
+
+    static String poolKey(short memberId, ClusterAddress address) {
+        return memberId + "/" + address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    /**
+     * Marks a newly created connection to be pooled under key if peer turns out to support conversations
+     */
+    static void setPoolKey(IoSession session, String key) {
+        session.setAttribute(POOL_KEY, key);
+    }
+
+    /**
+     * @return a pooled connection for the address of member or null if there is not any
+     */
+    IoSession acquire(short memberId, ClusterAddress address) {
+        String key = poolKey(memberId, address);
+        IoSession session = pool.get(key);
+        if (session == null) {
+            return null;
+        }
+        if (!session.isConnected() || session.isClosing()) {
+            pool.remove(key, session);
+            return null;
+        }
+        return session;
+    }
+
+    private void offer(IoSession session) {
+        String key = (String) session.getAttribute(POOL_KEY);
+        if (key == null || disposed) {
+            return;
+        }
+        if (pool.putIfAbsent(key, session) == null) {
+            log.debug("Connection {} is pooled for {}", session.getRemoteAddress(), key);
+        }
+    }
+
+    private boolean isPooled(IoSession session) {
+        String key = (String) session.getAttribute(POOL_KEY);
+        return key != null && pool.get(key) == session;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Integer, SyncSession> getConversations(IoSession session) {
+        Map<Integer, SyncSession> conversations = (Map<Integer, SyncSession>) session.getAttribute(CONVERSATIONS_KEY);
+        if (conversations == null) {
+            conversations = new ConcurrentHashMap<>();
+            Map<Integer, SyncSession> old = (Map<Integer, SyncSession>) session.setAttributeIfAbsent(CONVERSATIONS_KEY, conversations);
+            if (old != null) {
+                conversations = old;
+            }
+        }
+        return conversations;
+    }
+
+    /**
+     * @return the conversation msg belongs to. For peers not supporting conversations
+     * this is the one that opened the connection
+     */
+    static SyncSession getConversation(IoSession session, SyncMessage msg) {
+        if (msg.getConversationId() != 0) {
+            return getConversations(session).get(msg.getConversationId());
+        }
+        return (SyncSession) session.getAttribute(SyncSession.SESSION_KEY);
+    }
+
+    /**
+     * @return true if peer of session has advertised {@link SyncMessage#CAP_CONVERSATIONS}
+     */
+    static boolean isMultiplexed(IoSession session) {
+        return session.containsAttribute(MULTIPLEXED_KEY);
+    }
+
+    void attach(IoSession session, SyncSession sync) {
+        getConversations(session).put(sync.getConversationId(), sync);
+    }
+
+    /**
+     * Removes conversation of sync from session. Connection gets closed if
+     * no other conversation uses it and it is not pooled
+     */
+    void detach(IoSession session, SyncSession sync) {
+        Map<Integer, SyncSession> conversations = getConversations(session);
+        conversations.remove(sync.getConversationId(), sync);
+        if (conversations.isEmpty() && !isPooled(session)) {
+            session.close(false);
+        }
+    }
+
+    private List<SyncSession> detachAll(IoSession session) {
+        Map<Integer, SyncSession> conversations = getConversations(session);
+        List<SyncSession> detached = new ArrayList<>();
+        for (Integer id : new ArrayList<>(conversations.keySet())) {
+            SyncSession sync = conversations.remove(id);
+            if (sync != null) {
+                detached.add(sync);
+            }
+        }
+        return detached;
+    }
+
+    boolean isDisposed() {
+        return disposed;
+    }
+
+    synchronized void dispose() {
+        if (disposed) {
+            return;
+        }
+        disposed = true;
+        pool.clear();
+        timer.stop();
+        timerTasks.shutdown();
+        /*
+         * Connector does not dispose processors it did not create itself
+         */
+        connector.dispose(true);
+        processors.dispose();
+        if (callbacks != null) {
+            callbacks.shutdown();
+        }
+        log.debug("Outbound transport disposed");
+    }
+
+    private class Dispatcher extends IoHandlerAdapter {
+        @Override
+        public void sessionCreated(IoSession session) throws Exception {
+            SyncSession sync = (SyncSession) session.getAttribute(SyncSession.SESSION_KEY);
+            if (sync == null || sync.getHandler() == null) {
+                log.error("Outbound session {} is not attached to any sync session", session.getRemoteAddress());
+                session.close(true);
+                return;
+            }
+            sync.buildFilterChain(session);
+            sync.getHandler().sessionCreated(session);
+        }
+
+        @Override
+        public void sessionClosed(IoSession session) {
+            String key = (String) session.getAttribute(POOL_KEY);
+            if (key != null) {
+                pool.remove(key, session);
+            }
+            for (SyncSession sync : detachAll(session)) {
+                log.debug("Session unexpectly closed. Starting close worker");
+                sync.getHandler().workCallback(sync, SyncHandler.STATE_UNPROPER, sync.getLink());
+            }
+        }
+
+        @Override
+        public void sessionIdle(IoSession session, IdleStatus status) {
+            if (getConversations(session).isEmpty()) {
+                log.debug("Closing idle connection {}", session.getRemoteAddress());
+                session.close(false);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(IoSession session, Throwable cause) {
+            InetSocketAddress peer = (InetSocketAddress) session.getRemoteAddress();
+            if (cause instanceof IOException) {
+                log.error("{} by {}", cause.getMessage(), peer.getAddress().getHostAddress());
+                return;
+            }
+            String link = peer.getAddress().getHostAddress() + ":" + peer.getPort();
+            FrameTooLargeException tooLarge = FrameTooLargeException.find(cause);
+            if (tooLarge != null && tooLarge.getConversationId() != 0) {
+                /*
+                 * Nothing was written, so only the conversation of the message fails
+                 */
+                log.error("Could not send message of conversation {} to {}: {}", tooLarge.getConversationId(),
+                        link, tooLarge.getMessage());
+                SyncSession sync = getConversations(session).get(tooLarge.getConversationId());
+                if (sync != null) {
+                    detach(session, sync);
+                    sync.getHandler().workCallback(sync, SyncHandler.STATE_UNPROPER, link);
+                }
+                return;
+            }
+            log.error("", cause);
+            /*
+             * State of the stream is not known anymore, so none of the
+             * conversations can continue on this connection
+             */
+            for (SyncSession sync : detachAll(session)) {
+                sync.getHandler().workCallback(sync, SyncHandler.STATE_WORK_FAILED, link);
+            }
+            session.close(true);
+        }
+
+        @Override
+        public void messageReceived(IoSession session, Object message) throws Exception {
+            if (!(message instanceof SyncMessage)) {
+                log.error("Maliformed decoded message!");
+                return;
+            }
+            SyncMessage msg = (SyncMessage) message;
+            if ((msg.getCapabilities() & SyncMessage.CAP_CONVERSATIONS) != 0
+                    && !session.containsAttribute(MULTIPLEXED_KEY)) {
+                /*
+                 * First reply of the peer carries its hello
+                 */
+                session.setAttribute(MULTIPLEXED_KEY, true);
+                offer(session);
+            }
+            SyncSession sync = getConversation(session, msg);
+            if (sync == null || sync.getHandler() == null) {
+                log.warn("Got message of unknown conversation {} from {}", msg.getConversationId(), msg.getId());
+                return;
+            }
+            sync.messageReceived();
+            sync.getHandler().messageReceived(session, msg);
+        }
+
+        @Override
+        public void messageSent(IoSession session, Object message) {
+            if (message instanceof SyncMessage) {
+                SyncSession sync = getConversation(session, (SyncMessage) message);
+                if (sync != null) {
+                    sync.messageSent();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.madzdns.clusterlet;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Access to virtual threads through reflection, so that this library can
+ * still be built for and run on JVMs not having them
+ */
+@Slf4j
+final class VirtualThreads {
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+
+    static {
+        Method ofVirtual = null, name = null, factory = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            /*
+             * On JVMs having virtual threads only as a preview feature, this fails
+             * unless preview features are enabled
+             */
+            ofVirtual.invoke(null);
+        } catch (Throwable e) {
+            log.debug("Virtual threads are not supported by this JVM: {}", e.toString());
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+    }
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @param name prefix of names of the threads
+     * @return a factory of virtual threads or null if they are not supported
+     */
+    static ThreadFactory factory(String name) {
+        if (!isSupported()) {
+            return null;
+        }
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 1L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (Exception e) {
+            log.error("", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.github.madzdns.clusterlet;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A hashed wheel timer. Timeouts are put in the bucket of the wheel their deadline
+ * falls in and a single thread advances the wheel one bucket per tick, running
+ * expired timeouts of the bucket. Adding and cancelling a timeout is O(1), so it suits
+ * many short lived timeouts which rarely expire, like deadlines of syncs. Timeouts
+ * expire at most one tick late and their tasks must be short since they all share
+ * the thread of the timer
+ */
+@Slf4j
+class WheelTimer {
+    static final long DEFAULT_TICK = 10;
+    static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * Handle of a scheduled task
+     */
+    class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private volatile boolean cancelled = false;
+        private volatile boolean expired = false;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return false if the task is already run or cancelled
+         */
+        boolean cancel() {
+            if (cancelled || expired) {
+                return false;
+            }
+            cancelled = true;
+            return true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        boolean isExpired() {
+            return expired;
+        }
+    }
+
+    private final long tick;
+    private final List<LinkedList<Timeout>> wheel;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean stopped = false;
+    private long ticks = 0;
+
+    WheelTimer(String name) {
+        this(name, DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param tick      duration of a tick in milliseconds
+     * @param wheelSize number of buckets of the wheel
+     */
+    WheelTimer(String name, long tick, int wheelSize) {
+        this.tick = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tick));
+        this.wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new LinkedList<>());
+        }
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Runs task after delay
+     *
+     * @return handle to cancel the task
+     */
+    Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(Math.max(0, delay)));
+        if (stopped) {
+            timeout.cancel();
+            return timeout;
+        }
+        pending.add(timeout);
+        return timeout;
+    }
+
+    void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!stopped) {
+            long deadline = tick * (ticks + 1);
+            long sleep = deadline - (System.nanoTime() - startTime);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (stopped) {
+                        break;
+                    }
+                }
+                continue;
+            }
+            transferPending();
+            expire(wheel.get((int) (ticks % wheel.size())), deadline);
+            ticks++;
+        }
+        pending.clear();
+        log.debug("Timer {} stopped", worker.getName());
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long due = Math.max(timeout.deadline / tick, ticks);
+            timeout.rounds = (due - ticks) / wheel.size();
+            wheel.get((int) (due % wheel.size())).add(timeout);
+        }
+    }
+
+    private void expire(LinkedList<Timeout> bucket, long now) {
+        for (Iterator<Timeout> it = bucket.iterator(); it.hasNext(); ) {
+            Timeout timeout = it.next();
+            if (timeout.cancelled) {
+                it.remove();
+            } else if (timeout.rounds > 0) {
+                timeout.rounds--;
+            } else if (timeout.deadline <= now) {
+                it.remove();
+                timeout.expired = true;
+                try {
+                    timeout.task.run();
+                } catch (Throwable e) {
+                    log.error("", e);
+                }
+            }
+        }
+    }
+}
@@ -8,30 +8,57 @@ import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.ssl.SslContextFactory;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 public class NetProvider {
+    /*
+     * TLS sessions are cached inside the SSLContext they were negotiated with.
+     * So contexts are kept for the life of the process to let later connections
+     * to the same peer resume the session instead of doing a full handshake
+     */
+    public static final int SSL_SESSION_CACHE_SIZE = 1024;
+    public static final int SSL_SESSION_TIMEOUT = 24 * 60 * 60;
+
     private static SslContextFactory SSL_CTX = null;
+    private static SSLContext SSL_CTX_INSTANCE = null;
     private static SSLContext TLS_CTX = null;
+    private static volatile SSLContext BOGUS_CLIENT_CTX = null;
+    private static final Map<String, SSLContext> CLIENT_CTX = new ConcurrentHashMap<>();
+
+    private static SSLContext withSessionCache(SSLContext context, boolean client) {
+        if (context != null) {
+            SSLSessionContext sessions = client ? context.getClientSessionContext() : context.getServerSessionContext();
+            if (sessions != null) {
+                sessions.setSessionCacheSize(SSL_SESSION_CACHE_SIZE);
+                sessions.setSessionTimeout(SSL_SESSION_TIMEOUT);
+            }
+        }
+        return context;
+    }
+
     public static SSLContext getServerSSLContext(String keyStorePath, String trustStorePath,
                                                  String keyStorePassword, String trustStorePassword,
                                                  String keyStorePassword2nd) {
         try {
-            if (SSL_CTX != null) {
-                return SSL_CTX.newInstance();
+            if (SSL_CTX_INSTANCE != null) {
+                return SSL_CTX_INSTANCE;
             }
             if (keyStorePath != null && trustStorePath != null) {
-                return (SSL_CTX = new MinaServerSslContext().getSslContextFactory(keyStorePath, trustStorePath,
+                SSL_CTX = new MinaServerSslContext().getSslContextFactory(keyStorePath, trustStorePath,
                         keyStorePassword, trustStorePassword,
-                        keyStorePassword2nd)).newInstance();
+                        keyStorePassword2nd);
+                return SSL_CTX_INSTANCE = withSessionCache(SSL_CTX.newInstance(), false);
             }
         } catch (Exception e) {
             log.error("", e);
         }
         SSL_CTX = null;
-        return null;
+        return SSL_CTX_INSTANCE = null;
     }
 
     public static SSLContext getServerTLSContext(String keyStorePath, String trustStorePath,
@@ -42,9 +69,9 @@ public class NetProvider {
                 return TLS_CTX;
             }
             if (keyStorePath != null && trustStorePath != null) {
-                return TLS_CTX = JavaSSLContext.getSSLcontextFactory(keyStorePath, trustStorePath,
+                return TLS_CTX = withSessionCache(JavaSSLContext.getSSLcontextFactory(keyStorePath, trustStorePath,
                         keyStorePassword, trustStorePassword,
-                        keyStorePassword2nd);
+                        keyStorePassword2nd), false);
             }
         } catch (Exception e) {
             log.error("", e);
@@ -53,21 +80,56 @@ public class NetProvider {
     }
 
     public static SSLContext getClientSslContext() {
-        try {
-            return new MinaClientSslContext().getSslClientContextFactory();
-        } catch (GeneralSecurityException e) {
-            log.error("", e);
-            return null;
+        SSLContext context = BOGUS_CLIENT_CTX;
+        if (context != null) {
+            return context;
+        }
+        synchronized (NetProvider.class) {
+            if (BOGUS_CLIENT_CTX == null) {
+                try {
+                    BOGUS_CLIENT_CTX = withSessionCache(new MinaClientSslContext().getSslClientContextFactory(), true);
+                } catch (GeneralSecurityException e) {
+                    log.error("", e);
+                    return null;
+                }
+            }
+            return BOGUS_CLIENT_CTX;
         }
     }
 
+    /**
+     * @param certFilePath path of the certificate to trust
+     * @return client context for certFilePath. Certificate file is read only the
+     * first time, use {@link #resetClientSslContexts()} if it is changed
+     */
     public static SSLContext getClientSslContext(String certFilePath) {
-        try {
-            return new MinaClientSslContext().getSslClientContextFactory(certFilePath);
-        } catch (GeneralSecurityException | IOException e) {
-            log.error("for certFilePath={}", certFilePath, e);
-            return null;
+        SSLContext context = CLIENT_CTX.get(certFilePath);
+        if (context != null) {
+            return context;
+        }
+        synchronized (CLIENT_CTX) {
+            context = CLIENT_CTX.get(certFilePath);
+            if (context == null) {
+                try {
+                    context = withSessionCache(new MinaClientSslContext().getSslClientContextFactory(certFilePath), true);
+                } catch (GeneralSecurityException | IOException e) {
+                    log.error("for certFilePath={}", certFilePath, e);
+                    return null;
+                }
+                CLIENT_CTX.put(certFilePath, context);
+            }
+            return context;
+        }
+    }
+
+    /**
+     * Drops cached client contexts along with their TLS sessions
+     */
+    public static void resetClientSslContexts() {
+        synchronized (NetProvider.class) {
+            BOGUS_CLIENT_CTX = null;
         }
+        CLIENT_CTX.clear();
     }
 
     public static void closeMinaSession(IoSession session, boolean immidiate) {
@@ -1,42 +1,92 @@
 package com.github.madzdns.clusterlet.api.net.compress.filter;
 
+import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.compression.CompressionFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Compresses whole connections with deflate, if the peer does. Whether it does is
+ * found out from the first bytes it sends: if they don't start a deflate stream, the
+ * peer does not compress its connection and this filter takes itself out of the session, so
+ * nothing is compressed either way and messages are compressed one by one if
+ * both members support it
+ */
 public class MinaCompressionFilter extends CompressionFilter {
 
 	public final static String COMPRESS_FILTER = "compression_filter";
-	
+
 	private static Logger log = LoggerFactory.getLogger(MinaCompressionFilter.class);
-	
+
+	/*
+	 * First byte of zlib streams written by the filter
+	 */
+	private final static int ZLIB_HEADER = 0x78;
+
+	private boolean decided = false;
+
+	public MinaCompressionFilter() {
+
+		this(true);
+	}
+
+	/**
+	 * @param compressOutbound whether to compress what is sent before knowing if the peer
+	 * compresses its connection. Members connecting to others must not, since older
+	 * members which compress their connections only stop doing it once they receive
+	 * uncompressed bytes, but they always accept them
+	 */
+	public MinaCompressionFilter(boolean compressOutbound) {
+
+		setCompressOutbound(compressOutbound);
+	}
+
 	@Override
 	public void messageReceived(NextFilter nextFilter, IoSession session,
 			Object message) throws Exception {
-		try{
-			
-			super.messageReceived(nextFilter, session, message);
-			
-			
-		}catch(Exception e)
-		{
-			CompressionFilter compress = (CompressionFilter)session.getFilterChain().get(COMPRESS_FILTER);
-			
-			if(compress == null)
-			{
-				
-				log.error("Is not this wierd?");
-				
-				nextFilter.messageReceived(session, message);
-				
-				return;
-				
+
+		if(!decided && message instanceof IoBuffer && ((IoBuffer) message).hasRemaining()) {
+
+			decided = true;
+			IoBuffer in = (IoBuffer) message;
+			int start = in.position();
+
+			if(isZlibHeader(in, start)) {
+
+				try{
+
+					super.messageReceived(nextFilter, session, message);
+					return;
+				}catch(Exception e)
+				{
+					/*
+					 * Frames starting with a length which happens to look like a zlib header
+					 */
+					in.position(start);
+				}
 			}
-			
-			compress.setCompressInbound(false);
-			compress.setCompressOutbound(false);
+
+			log.debug("Connection of {} is not compressed", session.getRemoteAddress());
+			setCompressInbound(false);
+			setCompressOutbound(false);
+			session.getFilterChain().remove(this);
 			nextFilter.messageReceived(session, message);
+			return;
+		}
+
+		super.messageReceived(nextFilter, session, message);
+	}
+
+	private static boolean isZlibHeader(IoBuffer in, int start) {
+
+		int cmf = in.get(start) & 0xFF;
+
+		if(cmf != ZLIB_HEADER) {
+
+			return false;
 		}
+
+		return in.remaining() < 2 || ((cmf << 8) | (in.get(start + 1) & 0xFF)) % 31 == 0;
 	}
 }
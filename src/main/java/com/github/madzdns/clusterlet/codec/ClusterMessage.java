@@ -3,11 +3,8 @@ package com.github.madzdns.clusterlet.codec;
 import com.github.madzdns.clusterlet.Member.ClusterAddress;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -89,31 +86,51 @@ public class ClusterMessage implements IMessage {
     }
 
     @Override
-    public byte[] serialize() {
-        try (ByteArrayOutputStream stream = new ByteArrayOutputStream()) {
-            DataOutputStream out = new DataOutputStream(stream);
-            out.writeShort(this.id);
-            out.writeBoolean(this.useSsl);
-            out.writeBoolean(this.authByKey);
-            out.writeUTF(credentionalKey);
-            out.writeLong(version);
-            out.writeByte(command);
-
-            if (syncAddresses != null) {
-                out.writeByte(syncAddresses.size());
-                for (ClusterAddress addr : syncAddresses) {
-                    out.writeByte(addr.getAddress().getAddress().length);
-                    out.write(addr.getAddress().getAddress());
-                    out.writeInt(addr.getPort());
-                }
-            } else {
-                out.writeByte(0);
+    public int serializedSize() {
+        if (credentionalKey == null) {
+            return -1;
+        }
+        int size = Short.BYTES + 2 + ModifiedUtf8.sizeOf(credentionalKey) + Long.BYTES + 2;
+        if (syncAddresses != null) {
+            for (ClusterAddress addr : syncAddresses) {
+                size += 1 + addr.getAddress().getAddress().length + Integer.BYTES;
             }
-            return stream.toByteArray();
-        } catch (Exception e) {
-            log.error("", e);
+        }
+        return size;
+    }
+
+    @Override
+    public byte[] serialize() {
+        int size = serializedSize();
+        if (size < 0) {
+            log.error("Cluster message {} has no credentional key", id);
             return null;
         }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        serialize(buf);
+        return buf.array();
+    }
+
+    @Override
+    public void serialize(ByteBuffer out) {
+        out.putShort(this.id);
+        out.put((byte) (this.useSsl ? 1 : 0));
+        out.put((byte) (this.authByKey ? 1 : 0));
+        ModifiedUtf8.write(out, credentionalKey);
+        out.putLong(version);
+        out.put(command);
+
+        if (syncAddresses != null) {
+            out.put((byte) syncAddresses.size());
+            for (ClusterAddress addr : syncAddresses) {
+                byte[] ip = addr.getAddress().getAddress();
+                out.put((byte) ip.length);
+                out.put(ip);
+                out.putInt(addr.getPort());
+            }
+        } else {
+            out.put((byte) 0);
+        }
     }
 
     @Override
@@ -126,30 +143,31 @@ public class ClusterMessage implements IMessage {
 
     @Override
     public void deserialize(byte[] data) {
-        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
-            id = in.readShort();
-            useSsl = in.readBoolean();
-            authByKey = in.readBoolean();
-            credentionalKey = in.readUTF();
-            version = in.readLong();
-            command = in.readByte();
-            int len = in.readByte();
+        deserialize(ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public void deserialize(ByteBuffer in) {
+        try {
+            id = in.getShort();
+            useSsl = in.get() != 0;
+            authByKey = in.get() != 0;
+            credentionalKey = ModifiedUtf8.read(in);
+            version = in.getLong();
+            command = in.get();
+            int len = in.get();
             if (len > 0) {
                 syncAddresses = new HashSet<>();
-                byte[] ip;
-                byte ip_len;
-                int port;
                 for (int i = 0; i < len; i++) {
-                    ip = null;
-                    ip_len = in.readByte();
-                    if (ip_len > 0) {
-                        ip = new byte[ip_len];
-                        in.read(ip);
+                    byte[] ip = null;
+                    byte ipLen = in.get();
+                    if (ipLen > 0) {
+                        ip = new byte[ipLen];
+                        in.get(ip);
                     }
-                    port = in.readInt();
+                    int port = in.getInt();
                     if (ip != null) {
-                        ClusterAddress ca = new ClusterAddress(InetAddress.getByAddress(ip), port);
-                        syncAddresses.add(ca);
+                        syncAddresses.add(new ClusterAddress(InetAddress.getByAddress(ip), port));
                     }
                 }
             }
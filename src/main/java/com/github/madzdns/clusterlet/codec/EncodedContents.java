@@ -0,0 +1,135 @@
+package com.github.madzdns.clusterlet.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Contents of a {@link SyncMessage} sent to many members, serialized once for each
+ * form of ids and shared by the copies of the message sent to each member. Keys are
+ * left out of the shared bytes and written for each member, since key dictionaries
+ * belong to connections. Frames using a key dictionary always use compact ids too,
+ * so they share the compact form.
+ * <p>
+ * Frames which are compressed carry contents with keys in full instead, which compress
+ * well anyway. Those are the same for all members, so they are compressed only once and
+ * the compressed bytes are kept here for frames to other members
+ */
+final class EncodedContents {
+    private static final int CONTENT_OVERHEAD = 32;
+
+    private volatile Encoded legacy = null;
+    private volatile Encoded compact = null;
+    private final Map<Integer, byte[]> full = new ConcurrentHashMap<>();
+    private final Map<Long, byte[]> compressed = new ConcurrentHashMap<>();
+
+    /**
+     * Contents without their keys, and where in them each key goes
+     */
+    private static final class Encoded {
+        private final byte[] bytes;
+        private final int[] keyOffsets;
+        private final String[] keys;
+
+        private Encoded(byte[] bytes, int[] keyOffsets, String[] keys) {
+            this.bytes = bytes;
+            this.keyOffsets = keyOffsets;
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * Writes contents of message to out, with keys written through keys
+     */
+    void write(SyncMessage message, DataOutput out, KeyDictionary keys) throws IOException {
+        Encoded encoded = get(message);
+        int from = 0;
+        for (int i = 0; i < encoded.keys.length; i++) {
+            out.write(encoded.bytes, from, encoded.keyOffsets[i] - from);
+            SyncMessage.writeKey(out, encoded.keys[i], keys);
+            from = encoded.keyOffsets[i];
+        }
+        out.write(encoded.bytes, from, encoded.bytes.length - from);
+    }
+
+    private Encoded get(SyncMessage message) throws IOException {
+        boolean compactIds = message.isCompactIds();
+        Encoded encoded = compactIds ? compact : legacy;
+        if (encoded != null) {
+            return encoded;
+        }
+        synchronized (this) {
+            encoded = compactIds ? compact : legacy;
+            if (encoded == null) {
+                int size = 4;
+                for (SyncContent c : message.getContents()) {
+                    size += CONTENT_OVERHEAD + Math.max(0, c.getContentLength());
+                }
+                ByteArrayOutputStream stream = new ByteArrayOutputStream(size);
+                final DataOutputStream data = new DataOutputStream(stream);
+                final List<Integer> offsets = new ArrayList<>();
+                final List<String> keys = new ArrayList<>();
+                message.writeContents(data, (out, key) -> {
+                    offsets.add(data.size());
+                    keys.add(key);
+                });
+                int[] keyOffsets = new int[offsets.size()];
+                for (int i = 0; i < keyOffsets.length; i++) {
+                    keyOffsets[i] = offsets.get(i);
+                }
+                encoded = new Encoded(stream.toByteArray(), keyOffsets, keys.toArray(new String[0]));
+                if (compactIds) {
+                    compact = encoded;
+                } else {
+                    legacy = encoded;
+                }
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * @return contents of message with keys in full
+     */
+    byte[] getFull(SyncMessage message) throws IOException {
+        int form = formOf(message);
+        byte[] bytes = full.get(form);
+        if (bytes == null) {
+            Encoded encoded = get(message);
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(encoded.bytes.length
+                    + encoded.keys.length * CONTENT_OVERHEAD);
+            write(message, new DataOutputStream(stream),
+                    message.getKeyDictionary() != null ? KeyDictionary.NOT_KEEPING : null);
+            bytes = stream.toByteArray();
+            byte[] existing = full.putIfAbsent(form, bytes);
+            if (existing != null) {
+                bytes = existing;
+            }
+        }
+        return bytes;
+    }
+
+    byte[] getCompressed(SyncMessage message, byte algorithm, int dictionaryId) {
+        return compressed.get(compressionOf(message, algorithm, dictionaryId));
+    }
+
+    void setCompressed(SyncMessage message, byte algorithm, int dictionaryId, byte[] bytes) {
+        compressed.putIfAbsent(compressionOf(message, algorithm, dictionaryId), bytes);
+    }
+
+    /*
+     * Keys are written differently in frames using key dictionaries
+     */
+    private static int formOf(SyncMessage message) {
+        return (message.isCompactIds() ? 1 : 0) | (message.getKeyDictionary() != null ? 2 : 0);
+    }
+
+    private static long compressionOf(SyncMessage message, byte algorithm, int dictionaryId) {
+        return ((dictionaryId & 0xFFFFFFFFL) << 16) | ((algorithm & 0xFF) << 2) | formOf(message);
+    }
+}
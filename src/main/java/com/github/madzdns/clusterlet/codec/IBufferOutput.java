@@ -0,0 +1,15 @@
+package com.github.madzdns.clusterlet.codec;
+
+import java.io.DataOutput;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link DataOutput} writing into a buffer which contents can be serialized into directly
+ */
+public interface IBufferOutput extends DataOutput {
+    /**
+     * @return the buffer, positioned where the next byte goes and with at least size
+     * bytes remaining. Whatever is put into it is written to this output
+     */
+    ByteBuffer reserve(int size);
+}
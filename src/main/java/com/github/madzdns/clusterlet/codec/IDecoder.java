@@ -1,5 +1,6 @@
 package com.github.madzdns.clusterlet.codec;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 public interface IDecoder {
@@ -9,4 +10,15 @@ public interface IDecoder {
 	public void configure(Map<String, ?> config);
 	
 	public void deserialize(byte[] data);
+
+	/**
+	 * Reads this from the remaining of data, which is a read only view of the received
+	 * frame. Override to avoid copying data into an array first
+	 */
+	public default void deserialize(ByteBuffer data) {
+		
+		byte[] bytes = new byte[data.remaining()];
+		data.get(bytes);
+		deserialize(bytes);
+	}
 }
@@ -1,6 +1,32 @@
 package com.github.madzdns.clusterlet.codec;
 
+import java.nio.ByteBuffer;
+
 public interface IEncoder {
 
 	public byte[] serialize();
+
+	/**
+	 * @return exact number of bytes {@link #serialize(ByteBuffer)} writes or -1 if it is not
+	 * known without serializing. Messages which know it are serialized straight into the frames
+	 * they are sent in, possibly more than once, so they must not change after they are synced
+	 */
+	public default int serializedSize() {
+		
+		return -1;
+	}
+
+	/**
+	 * Writes the same bytes as {@link #serialize()} into buf. If {@link #serializedSize()}
+	 * is known, buf has at least that many bytes remaining
+	 */
+	public default void serialize(ByteBuffer buf) {
+		
+		byte[] data = serialize();
+		
+		if(data != null) {
+			
+			buf.put(data);
+		}
+	}
 }
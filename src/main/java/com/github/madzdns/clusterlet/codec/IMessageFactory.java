@@ -0,0 +1,50 @@
+package com.github.madzdns.clusterlet.codec;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Creates the messages received contents are decoded into
+ */
+@FunctionalInterface
+public interface IMessageFactory {
+
+	/**
+	 * @return a message to deserialize a received content into
+	 */
+	IMessage create();
+
+	/**
+	 * Called once Clusterlet is done with a message of {@link #create()}, after the callback
+	 * has returned and unless the message was given back as a response. Pooling factories
+	 * can recycle message here, as long as callbacks don't keep it
+	 */
+	default void release(IMessage message) {
+
+	}
+
+	/**
+	 * Creates messages using the no argument constructor of type, which is looked up once
+	 *
+	 * @throws IllegalArgumentException if type has no such constructor
+	 */
+	static IMessageFactory of(Class<? extends IMessage> type) {
+
+		final Constructor<? extends IMessage> constructor;
+		try {
+			constructor = type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(type.getName() + " has no constructor without arguments", e);
+		}
+		return () -> {
+			try {
+				return constructor.newInstance();
+			} catch (InvocationTargetException e) {
+				throw new IllegalStateException("Could not create " + type.getName(), e.getCause());
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("Could not create " + type.getName(), e);
+			}
+		};
+	}
+}
@@ -0,0 +1,133 @@
+package com.github.madzdns.clusterlet.codec;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compact encoding of sets of member ids. A set is written in whichever of the
+ * forms below is smallest, after a byte telling the form:
+ * <ul>
+ * <li>{@link #RANGE}: first id and count, for consecutive ids like all members of
+ * a cluster numbered from 1</li>
+ * <li>{@link #BITSET}: first id, number of bytes and a bit per id from the first one</li>
+ * <li>{@link #DELTAS}: count, first id and the difference of each id with the previous one</li>
+ * </ul>
+ * Numbers are unsigned varints and ids are taken as unsigned shorts
+ */
+final class IdSets {
+    static final byte EMPTY = 0;
+    static final byte RANGE = 1;
+    static final byte BITSET = 2;
+    static final byte DELTAS = 3;
+
+    private IdSets() {
+    }
+
+    static void write(DataOutput out, Set<Short> ids) throws IOException {
+        if (ids == null || ids.isEmpty()) {
+            out.writeByte(EMPTY);
+            return;
+        }
+        int[] sorted = sort(ids);
+        int n = sorted.length;
+        int first = sorted[0];
+        int span = sorted[n - 1] - first;
+        if (span == n - 1) {
+            out.writeByte(RANGE);
+            Varint.write(out, first);
+            Varint.write(out, n);
+            return;
+        }
+        int bitsetBytes = span / 8 + 1;
+        int bitsetSize = Varint.sizeOf(first) + Varint.sizeOf(bitsetBytes) + bitsetBytes;
+        int deltasSize = Varint.sizeOf(n) + Varint.sizeOf(first);
+        for (int i = 1; i < n; i++) {
+            deltasSize += Varint.sizeOf(sorted[i] - sorted[i - 1]);
+        }
+        if (bitsetSize <= deltasSize) {
+            out.writeByte(BITSET);
+            Varint.write(out, first);
+            Varint.write(out, bitsetBytes);
+            byte[] bits = new byte[bitsetBytes];
+            for (int id : sorted) {
+                int bit = id - first;
+                bits[bit >>> 3] |= 1 << (bit & 7);
+            }
+            out.write(bits);
+        } else {
+            out.writeByte(DELTAS);
+            Varint.write(out, n);
+            Varint.write(out, first);
+            for (int i = 1; i < n; i++) {
+                Varint.write(out, sorted[i] - sorted[i - 1]);
+            }
+        }
+    }
+
+    /**
+     * @return the set, or null if it was empty
+     */
+    static Set<Short> read(ByteBuffer in) throws IOException {
+        byte form = in.get();
+        if (form == EMPTY) {
+            return null;
+        }
+        Set<Short> ids;
+        if (form == RANGE) {
+            int first = Varint.read(in);
+            int n = Varint.read(in);
+            checkId(first + n - 1);
+            ids = new HashSet<>(n * 2);
+            for (int i = 0; i < n; i++) {
+                ids.add((short) (first + i));
+            }
+        } else if (form == BITSET) {
+            int first = Varint.read(in);
+            int bytes = Varint.read(in);
+            ids = new HashSet<>();
+            for (int i = 0; i < bytes; i++) {
+                int b = in.get() & 0xFF;
+                for (int bit = 0; b != 0; bit++, b >>>= 1) {
+                    if ((b & 1) != 0) {
+                        ids.add((short) checkId(first + i * 8 + bit));
+                    }
+                }
+            }
+        } else if (form == DELTAS) {
+            int n = Varint.read(in);
+            checkId(n - 1);
+            ids = new HashSet<>(n * 2);
+            int id = Varint.read(in);
+            ids.add((short) checkId(id));
+            for (int i = 1; i < n; i++) {
+                id += Varint.read(in);
+                ids.add((short) checkId(id));
+            }
+        } else {
+            throw new StreamCorruptedException("Unknown id set form " + form);
+        }
+        return ids;
+    }
+
+    private static int checkId(int id) throws StreamCorruptedException {
+        if (id > 0xFFFF) {
+            throw new StreamCorruptedException("Id " + id + " is out of range");
+        }
+        return id;
+    }
+
+    private static int[] sort(Set<Short> ids) {
+        int[] sorted = new int[ids.size()];
+        int i = 0;
+        for (Short id : ids) {
+            sorted[i++] = id & 0xFFFF;
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
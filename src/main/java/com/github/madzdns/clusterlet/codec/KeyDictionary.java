@@ -0,0 +1,127 @@
+package com.github.madzdns.clusterlet.codec;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keys of contents and key chains sent over one direction of a connection. The first
+ * time a key is written it is assigned a slot and is written along with it. After
+ * that only the slot is written, until the key is evicted for not being used.
+ * <p>
+ * A key is written as a varint, which is 0 for a key which is not kept followed by the
+ * key, 2 * slot + 1 for a key kept in slot followed by the key and 2 * slot + 2 for
+ * the key already kept in slot. The writing side assigns and evicts slots and the
+ * reading side only follows it, so frames must be read in the order they are written.
+ * An instance is either used for writing or for reading and is not thread safe
+ */
+public final class KeyDictionary {
+    /**
+     * Number of slots. It is part of the protocol, so it is the same for all members
+     */
+    public static final int CAPACITY = 1024;
+    /*
+     * Keys not longer than this are cheaper to write each time
+     */
+    private static final int MIN_KEY_LENGTH = 3;
+    /*
+     * Writes all keys in full, without keeping them. It is never changed so it is
+     * thread safe, unlike other instances
+     */
+    static final KeyDictionary NOT_KEEPING = new KeyDictionary(false);
+
+    private final LinkedHashMap<String, Integer> slots = new LinkedHashMap<>(16, 0.75f, true);
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private final List<String> assigned = new ArrayList<>();
+    private int nextSlot = 0;
+    private String[] keys = null;
+    private final boolean keeping;
+
+    public KeyDictionary() {
+        this(true);
+    }
+
+    private KeyDictionary(boolean keeping) {
+        this.keeping = keeping;
+    }
+
+    void writeKey(DataOutput out, String key) throws IOException {
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            Varint.write(out, 2 * slot + 2);
+            return;
+        }
+        if (!keeping || key.length() <= MIN_KEY_LENGTH) {
+            out.writeByte(0);
+            out.writeUTF(key);
+            return;
+        }
+        if (!freeSlots.isEmpty()) {
+            slot = freeSlots.poll();
+        } else if (nextSlot < CAPACITY) {
+            slot = nextSlot++;
+        } else {
+            Iterator<Map.Entry<String, Integer>> eldest = slots.entrySet().iterator();
+            slot = eldest.next().getValue();
+            eldest.remove();
+        }
+        slots.put(key, slot);
+        assigned.add(key);
+        Varint.write(out, 2 * slot + 1);
+        out.writeUTF(key);
+    }
+
+    String readKey(ByteBuffer in) throws IOException {
+        int code = Varint.read(in);
+        if (code == 0) {
+            return ModifiedUtf8.read(in);
+        }
+        int slot = (code - 1) >>> 1;
+        if (slot >= CAPACITY) {
+            throw new StreamCorruptedException("Key slot " + slot + " is out of range");
+        }
+        if (keys == null) {
+            keys = new String[CAPACITY];
+        }
+        if ((code & 1) != 0) {
+            String key = ModifiedUtf8.read(in);
+            keys[slot] = key;
+            return key;
+        }
+        String key = keys[slot];
+        if (key == null) {
+            throw new StreamCorruptedException("Key slot " + slot + " is empty");
+        }
+        return key;
+    }
+
+    /**
+     * Starts writing a frame. Slots assigned from now on are taken back by
+     * {@link #rollback()} if the frame is not sent after all
+     */
+    public void begin() {
+        assigned.clear();
+    }
+
+    /**
+     * Forgets slots assigned since {@link #begin()}. The reading side might still
+     * hold older keys in them, but they are never referred to again
+     */
+    public void rollback() {
+        for (String key : assigned) {
+            Integer slot = slots.remove(key);
+            if (slot != null) {
+                freeSlots.add(slot);
+            }
+        }
+        assigned.clear();
+    }
+}
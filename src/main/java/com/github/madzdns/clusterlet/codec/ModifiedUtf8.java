@@ -0,0 +1,95 @@
+package com.github.madzdns.clusterlet.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * Strings in the format of {@link java.io.DataOutput#writeUTF(String)}, read from
+ * and written to {@link ByteBuffer}s
+ */
+public final class ModifiedUtf8 {
+    public static final int MAX_LENGTH = 65535;
+
+    private ModifiedUtf8() {
+    }
+
+    /**
+     * @return number of bytes s takes, including its length
+     */
+    public static int sizeOf(String s) {
+        return 2 + encodedLength(s);
+    }
+
+    private static int encodedLength(String s) {
+        int utflen = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                utflen++;
+            } else if (c > 0x07FF) {
+                utflen += 3;
+            } else {
+                utflen += 2;
+            }
+        }
+        return utflen;
+    }
+
+    public static void write(ByteBuffer out, String s) {
+        int utflen = encodedLength(s);
+        if (utflen > MAX_LENGTH) {
+            throw new IllegalArgumentException("encoded string too long: " + utflen + " bytes");
+        }
+        out.putShort((short) utflen);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                out.put((byte) c);
+            } else if (c > 0x07FF) {
+                out.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                out.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    public static String read(ByteBuffer in) throws IOException {
+        int utflen = in.getShort() & 0xFFFF;
+        if (utflen > in.remaining()) {
+            throw new EOFException("Truncated string of " + utflen + " bytes");
+        }
+        char[] chars = new char[utflen];
+        int count = 0;
+        int end = in.position() + utflen;
+        while (in.position() < end) {
+            int c = in.get() & 0xFF;
+            if (c < 0x80) {
+                chars[count++] = (char) c;
+            } else if ((c & 0xE0) == 0xC0) {
+                chars[count++] = (char) (((c & 0x1F) << 6) | readContinuation(in, end));
+            } else if ((c & 0xF0) == 0xE0) {
+                int c2 = readContinuation(in, end);
+                chars[count++] = (char) (((c & 0x0F) << 12) | (c2 << 6) | readContinuation(in, end));
+            } else {
+                throw new UTFDataFormatException("malformed input around byte " + (in.position() - 1));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static int readContinuation(ByteBuffer in, int end) throws UTFDataFormatException {
+        if (in.position() >= end) {
+            throw new UTFDataFormatException("malformed input: partial character at end");
+        }
+        int c = in.get() & 0xFF;
+        if ((c & 0xC0) != 0x80) {
+            throw new UTFDataFormatException("malformed input around byte " + (in.position() - 1));
+        }
+        return c & 0x3F;
+    }
+}
@@ -1,5 +1,9 @@
 package com.github.madzdns.clusterlet.codec;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Set;
 
 public class SyncContent {
@@ -8,6 +12,16 @@ public class SyncContent {
 	private long version;
 	private Set<Short> awareIds;
 	private byte[] content;
+	/*
+	 * Content of decoded messages. It is a view of the received frame and
+	 * content is only copied out of it if somebody asks for the array
+	 */
+	private ByteBuffer contentBuffer;
+	/*
+	 * Message the content is serialized from when it is sent, if its size is known up front
+	 */
+	private IEncoder source;
+	private int sourceSize;
 	
 	public SyncContent(String key, long version, Set<Short> awareIds,
 					   byte[] content) {
@@ -53,11 +67,139 @@ public class SyncContent {
 		awareIds.addAll(nodes);
 	}
 	
+	/**
+	 * Content is kept as a view of buffer, so it is not copied unless
+	 * {@link #getContent()} is called
+	 */
+	static SyncContent view(String key, long version, Set<Short> awareIds,
+							ByteBuffer content) {
+
+		SyncContent s = new SyncContent(key, version, awareIds, null);
+		s.contentBuffer = content;
+		return s;
+	}
+
+	/**
+	 * @return content of message. If message knows its {@link IEncoder#serializedSize()},
+	 * it is not serialized until the content is sent
+	 */
+	public static SyncContent of(String key, long version, Set<Short> awareIds,
+								 IEncoder message) {
+		
+		int size = message.serializedSize();
+		
+		if(size < 0) {
+			
+			return new SyncContent(key, version, awareIds, message.serialize());
+		}
+		
+		SyncContent s = new SyncContent(key, version, awareIds, null);
+		s.source = message;
+		s.sourceSize = size;
+		return s;
+	}
+
+	/**
+	 * @return content received in another message, sent on under key and version
+	 * without being copied or serialized again
+	 */
+	public static SyncContent forward(String key, long version, Set<Short> awareIds,
+									  SyncContent received) {
+		
+		if(received.contentBuffer != null) {
+			
+			return view(key, version, awareIds, received.contentBuffer.duplicate());
+		}
+		
+		return new SyncContent(key, version, awareIds, received.getContent());
+	}
+
 	public byte[] getContent() {
 		
+		if(content == null && source != null) {
+			
+			content = source.serialize();
+		} else if(content == null && contentBuffer != null) {
+			
+			byte[] data = new byte[contentBuffer.remaining()];
+			contentBuffer.duplicate().get(data);
+			content = data;
+		}
+		
 		return content;
 	}
 	
+	/**
+	 * @return a read only view of content without copying it or null if there is no content
+	 */
+	public ByteBuffer getContentBuffer() {
+		
+		if(contentBuffer != null) {
+			
+			return contentBuffer.asReadOnlyBuffer();
+		}
+		
+		getContent();
+		return content == null ? null : ByteBuffer.wrap(content).asReadOnlyBuffer();
+	}
+	
+	public int getContentLength() {
+		
+		if(content == null && source != null) {
+			
+			return sourceSize;
+		}
+		
+		if(contentBuffer != null) {
+			
+			return contentBuffer.remaining();
+		}
+		
+		return content == null ? 0 : content.length;
+	}
+	
+	/**
+	 * Writes content to out without copying it to an intermediate array
+	 */
+	void writeContent(DataOutput out) throws IOException {
+		
+		if(content == null && source != null && out instanceof IBufferOutput) {
+			
+			ByteBuffer buf = ((IBufferOutput) out).reserve(sourceSize);
+			int start = buf.position();
+			
+			try {
+				
+				source.serialize(buf);
+			} catch (BufferOverflowException e) {
+				
+				throw new IOException("Message " + key + " is larger than its serializedSize " + sourceSize);
+			}
+			
+			if(buf.position() - start != sourceSize) {
+				
+				throw new IOException("Message " + key + " wrote " + (buf.position() - start) +
+						" bytes instead of its serializedSize " + sourceSize);
+			}
+			
+			return;
+		}
+		
+		if(content == null && contentBuffer != null && contentBuffer.hasArray()) {
+			
+			out.write(contentBuffer.array(), contentBuffer.arrayOffset() + contentBuffer.position(),
+					contentBuffer.remaining());
+			return;
+		}
+		
+		byte[] data = getContent();
+		
+		if(data != null) {
+			
+			out.write(data);
+		}
+	}
+	
 	@Override
 	public int hashCode() {
 		// TODO Auto-generated method stub
@@ -3,9 +3,14 @@ package com.github.madzdns.clusterlet.codec;
 import com.github.madzdns.clusterlet.SyncType;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutput;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 @Slf4j
@@ -33,6 +38,41 @@ public class SyncMessage implements ISyncMessage {
     public final static byte IN_STARTUP = 1;
     public final static byte NOT_IN_STARTUP = 0;
 
+    /*
+     * Extensions are written after contents. Decoders which don't know
+     * about them simply don't read the rest of the frame
+     */
+    public final static byte EXT_CONVERSATION_ID = 1;
+    public final static byte EXT_MAX_FRAME_SIZE = 2;
+    public final static byte EXT_COMPRESSIONS = 3;
+    public final static byte EXT_DICTIONARY = 4;
+    public final static byte EXT_HELLO = 5;
+    public final static byte EXT_PRESET_DICTIONARY = 6;
+
+    /*
+     * Version of the protocol and optional features of it, which members advertise in
+     * their first message on each connection. Each side then uses the features both
+     * sides support. Members from before the handshake are version 1
+     */
+    public final static short PROTOCOL_VERSION = 2;
+    /*
+     * Largest dictionary an extension can carry
+     */
+    public final static int MAX_PRESET_DICTIONARY = 0xFFFF - Long.BYTES;
+    public final static int CAP_FRAMED = 0x01;
+    public final static int CAP_COMPACT_IDS = 0x02;
+    public final static int CAP_KEY_DICTIONARY = 0x04;
+    public final static int CAP_DEFLATE = 0x08;
+    public final static int CAP_LZF = 0x10;
+    public final static int CAP_PRESET_DICTIONARY = 0x20;
+    public final static int CAP_CONVERSATIONS = 0x40;
+
+    /*
+     * Frame compression algorithms, as bits of the advertised set
+     */
+    public final static byte COMPRESSION_DEFLATE = 1;
+    public final static byte COMPRESSION_LZF = 2;
+
     public enum SyncMode {
         SYNC_CLUSTER((byte) 1),
         SYNC_MESSAGE((byte) 0);
@@ -58,11 +98,51 @@ public class SyncMessage implements ISyncMessage {
     private List<SyncContent> contents;
     private SyncType syncType = SyncType.UNICAST;
     private Set<Short> expectedIds = null;
+    private int conversationId = 0;
+    private int maxFrameSize = 0;
+    private byte compressions = 0;
+    private int dictionaryId = 0;
+    private byte[] presetDictionary = null;
+    private long presetDictionaryVersion = 0;
+    private short protocolVersion = 0;
+    private int capabilities = 0;
+    private boolean compactIds = false;
+    private KeyDictionary keyDictionary = null;
+    private EncodedContents encodedContents = null;
 
     public SyncMessage() {
         contents = new ArrayList<>();
     }
 
+    /**
+     * @return a shallow copy of this message. Contents are shared with the copy
+     * so per peer fields could be changed without touching this message
+     */
+    public SyncMessage duplicate() {
+        SyncMessage m = new SyncMessage();
+        m.keyChain = keyChain;
+        m.id = id;
+        m.type = type;
+        m.sequence = sequence;
+        m.syncMode = syncMode;
+        m.inStartup = inStartup;
+        m.contents = contents;
+        m.syncType = syncType;
+        m.expectedIds = expectedIds;
+        m.conversationId = conversationId;
+        m.maxFrameSize = maxFrameSize;
+        m.compressions = compressions;
+        m.dictionaryId = dictionaryId;
+        m.presetDictionary = presetDictionary;
+        m.presetDictionaryVersion = presetDictionaryVersion;
+        m.protocolVersion = protocolVersion;
+        m.capabilities = capabilities;
+        m.compactIds = compactIds;
+        m.keyDictionary = keyDictionary;
+        m.encodedContents = encodedContents;
+        return m;
+    }
+
     public byte getType() {
         return type;
     }
@@ -117,14 +197,56 @@ public class SyncMessage implements ISyncMessage {
 
     public void setContents(List<SyncContent> contents) {
         this.contents = contents;
+        this.encodedContents = null;
     }
 
     public void setContents(Collection<SyncContent> contents) {
         this.contents = new ArrayList<SyncContent>(contents);
+        this.encodedContents = null;
     }
 
     public void addContents(SyncContent content) {
         this.contents.add(content);
+        this.encodedContents = null;
+    }
+
+    /**
+     * Makes this message and its copies serialize contents only once, for messages
+     * which are sent to many members. Contents must not be changed afterwards
+     */
+    public void shareContents() {
+        this.encodedContents = new EncodedContents();
+    }
+
+    public boolean hasSharedContents() {
+        return encodedContents != null;
+    }
+
+    /**
+     * @return {@link #shareContents() shared} contents serialized with keys in full, which are
+     * the same for all members with the same form of ids and keys, or null if contents are not
+     * shared. Serializing head, these and tail makes a whole message
+     */
+    public byte[] getSharedContents() throws IOException {
+        EncodedContents shared = encodedContents;
+        return shared == null ? null : shared.getFull(this);
+    }
+
+    /**
+     * @return what {@link #getSharedContents()} got compressed into by algorithm and the
+     * dictionary of dictionaryId, or null if they are yet to be compressed. An empty array
+     * means they do not get smaller by compressing
+     */
+    public byte[] getSharedCompressed(byte algorithm, int dictionaryId) {
+        EncodedContents shared = encodedContents;
+        return shared == null ? null : shared.getCompressed(this, algorithm, dictionaryId);
+    }
+
+    public void setSharedCompressed(byte algorithm, int dictionaryId, byte[] compressed) {
+        EncodedContents shared = encodedContents;
+        if (shared != null) {
+            shared.setCompressed(this, algorithm, dictionaryId, compressed);
+        }
     }
 
     public SyncType getSyncType() {
@@ -143,71 +265,325 @@ public class SyncMessage implements ISyncMessage {
         this.expectedIds = expectedIds;
     }
 
+    /**
+     * @return id of the conversation this message belongs to or 0 if the
+     * connection carrying this message is not shared between conversations
+     */
+    public int getConversationId() {
+        return conversationId;
+    }
+
+    public void setConversationId(int conversationId) {
+        this.conversationId = conversationId;
+    }
+
+    /**
+     * @return largest frame in bytes the sender of this message accepts or
+     * 0 if it did not advertise it
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * @return bits of the frame compression algorithms the sender of this message
+     * decodes or 0 if it did not advertise any
+     */
+    public byte getCompressions() {
+        return compressions;
+    }
+
+    public void setCompressions(byte compressions) {
+        this.compressions = compressions;
+    }
+
+    /**
+     * @return id of the compression dictionary the sender of this message has got
+     * or 0 if it did not advertise it
+     */
+    public int getDictionaryId() {
+        return dictionaryId;
+    }
+
+    public void setDictionaryId(int dictionaryId) {
+        this.dictionaryId = dictionaryId;
+    }
+
+    /**
+     * @return compression dictionary the sender passes on to the receiver or null
+     */
+    public byte[] getPresetDictionary() {
+        return presetDictionary;
+    }
+
+    public long getPresetDictionaryVersion() {
+        return presetDictionaryVersion;
+    }
+
+    /**
+     * @param data at most {@link #MAX_PRESET_DICTIONARY} bytes
+     */
+    public void setPresetDictionary(byte[] data, long version) {
+        if (data != null && data.length > MAX_PRESET_DICTIONARY) {
+            throw new IllegalArgumentException("Dictionary of " + data.length + " bytes is too large");
+        }
+        this.presetDictionary = data;
+        this.presetDictionaryVersion = version;
+    }
+
+    /**
+     * @return protocol version of the sender of this message or 0 if it did not
+     * advertise it
+     */
+    public short getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public void setProtocolVersion(short protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    /**
+     * @return CAP_ bits of the features the sender of this message supports. It is
+     * only advertised along with {@link #getProtocolVersion()}
+     */
+    public int getCapabilities() {
+        return capabilities;
+    }
+
+    public void setCapabilities(int capabilities) {
+        this.capabilities = capabilities;
+    }
+
+    /**
+     * @return whether expected and aware ids are written in the compact form of
+     * {@link IdSets} instead of a count and a short per id. This is not written in
+     * the message itself, the frame carrying it tells it
+     */
+    public boolean isCompactIds() {
+        return compactIds;
+    }
+
+    public void setCompactIds(boolean compactIds) {
+        this.compactIds = compactIds;
+    }
+
+    /**
+     * @return dictionary keys of this message are written with or read from, or null
+     * if they are written in full. Like {@link #isCompactIds()}, the frame tells it
+     */
+    public KeyDictionary getKeyDictionary() {
+        return keyDictionary;
+    }
+
+    public void setKeyDictionary(KeyDictionary keyDictionary) {
+        this.keyDictionary = keyDictionary;
+    }
 
+
+    /**
+     * Reads this message out of the rest of in
+     */
     @Override
     public void deserialize(DataInputStream in) throws IOException {
-        id = in.readShort();
-        type = in.readByte();
-        sequence = in.readByte();
-        inStartup = in.readBoolean();
-        byte mode = in.readByte();
-        if (mode == SyncMode.SYNC_CLUSTER.getMode()) {
-            syncMode = SyncMode.SYNC_CLUSTER;
-        } else {
-            syncMode = SyncMode.SYNC_MESSAGE;
+        ByteArrayOutputStream rest = new ByteArrayOutputStream(Math.max(in.available(), 32));
+        byte[] chunk = new byte[4096];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            rest.write(chunk, 0, n);
         }
-        mode = in.readByte();
-        syncType = SyncType.getByValue(mode);
-        int len = in.readByte();
-        if (len > 0) {
-            keyChain = new ArrayList<>();
-            String key;
-            for (int i = 0; i < len; i++) {
-                key = in.readUTF();
-                keyChain.add(key);
+        deserialize(ByteBuffer.wrap(rest.toByteArray()));
+    }
+
+    /**
+     * Reads this message out of the remaining of in, which should hold exactly
+     * one message. Contents are not copied but kept as views of in, so in must
+     * not be changed afterwards
+     */
+    public void deserialize(ByteBuffer in) throws IOException {
+        try {
+            id = in.getShort();
+            type = in.get();
+            sequence = in.get();
+            inStartup = in.get() != 0;
+            byte mode = in.get();
+            if (mode == SyncMode.SYNC_CLUSTER.getMode()) {
+                syncMode = SyncMode.SYNC_CLUSTER;
+            } else {
+                syncMode = SyncMode.SYNC_MESSAGE;
             }
-        }
-        len = in.readShort();
-        if (len > 0) {
-            this.expectedIds = new HashSet<Short>(len);
-            for (int i = 0; i < len; i++) {
-                this.expectedIds.add(in.readShort());
+            mode = in.get();
+            syncType = SyncType.getByValue(mode);
+            int len = in.get();
+            if (len > 0) {
+                keyChain = new ArrayList<>(len);
+                for (int i = 0; i < len; i++) {
+                    keyChain.add(readKey(in));
+                }
             }
-        }
-        len = in.readInt();
-        if (len > 0) {
-            int contentLen = 0;
-            byte[] message = null;
-            long version = 0;
-            String key = null;
+            this.expectedIds = readIds(in);
+            len = in.getInt();
             for (int i = 0; i < len; i++) {
-                contentLen = in.readInt();
+                int contentLen = in.getInt();
+                ByteBuffer message = null;
                 if (contentLen > 0) {
-                    message = new byte[contentLen];
-                    in.read(message);
-                } else {
-                    message = null;
+                    if (contentLen > in.remaining()) {
+                        throw new EOFException("Truncated content of " + contentLen + " bytes");
+                    }
+                    message = in.slice();
+                    message.limit(contentLen);
+                    in.position(in.position() + contentLen);
                 }
+                long version = in.getLong();
+                String key = readKey(in);
+                Set<Short> awareIds = readIds(in);
+                this.contents.add(SyncContent.view(key, version, awareIds, message));
+            }
+            readExtensions(in);
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("Truncated sync message");
+        }
+    }
 
-                version = in.readLong();
-                key = in.readUTF();
-                contentLen = in.readShort();
-                Set<Short> awareIds = null;
-                if (contentLen > 0) {
-                    awareIds = new HashSet<Short>();
-                    for (int j = 0; j < contentLen; j++) {
-                        awareIds.add(in.readShort());
-                    }
+    private String readKey(ByteBuffer in) throws IOException {
+        if (keyDictionary != null) {
+            return keyDictionary.readKey(in);
+        }
+        return ModifiedUtf8.read(in);
+    }
+
+    static void writeKey(DataOutput out, String key, KeyDictionary keys) throws IOException {
+        if (keys != null) {
+            keys.writeKey(out, key);
+        } else {
+            out.writeUTF(key);
+        }
+    }
+
+    private Set<Short> readIds(ByteBuffer in) throws IOException {
+        if (compactIds) {
+            return IdSets.read(in);
+        }
+        int len = in.getShort();
+        if (len <= 0) {
+            return null;
+        }
+        Set<Short> ids = new HashSet<Short>(len);
+        for (int i = 0; i < len; i++) {
+            ids.add(in.getShort());
+        }
+        return ids;
+    }
+
+    private void writeIds(DataOutput out, Set<Short> ids) throws IOException {
+        if (compactIds) {
+            IdSets.write(out, ids);
+        } else if (ids == null || ids.size() == 0) {
+            out.writeShort(0);
+        } else {
+            out.writeShort(ids.size());
+            for (Short id : ids) {
+                out.writeShort(id);
+            }
+        }
+    }
+
+    private void readExtensions(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            byte ext = in.get();
+            int len = in.getShort() & 0xFFFF;
+            if (len > in.remaining()) {
+                throw new EOFException("Truncated extension " + ext);
+            }
+            int end = in.position() + len;
+            if (ext == EXT_CONVERSATION_ID) {
+                conversationId = in.getInt();
+            } else if (ext == EXT_MAX_FRAME_SIZE) {
+                maxFrameSize = in.getInt();
+            } else if (ext == EXT_COMPRESSIONS) {
+                compressions = in.get();
+            } else if (ext == EXT_DICTIONARY) {
+                dictionaryId = in.getInt();
+            } else if (ext == EXT_HELLO) {
+                protocolVersion = in.getShort();
+                capabilities = in.getInt();
+            } else if (ext == EXT_PRESET_DICTIONARY) {
+                if (len < Long.BYTES) {
+                    throw new EOFException("Truncated extension " + ext);
                 }
-                SyncContent s = new SyncContent(key, version, awareIds, message);
-                this.contents.add(s);
+                presetDictionaryVersion = in.getLong();
+                presetDictionary = new byte[len - Long.BYTES];
+                in.get(presetDictionary);
             }
+            in.position(end);
+        }
+    }
+
+    private void writeExtensions(DataOutput out) throws IOException {
+        if (conversationId != 0) {
+            out.writeByte(EXT_CONVERSATION_ID);
+            out.writeShort(4);
+            out.writeInt(conversationId);
+        }
+        if (maxFrameSize > 0) {
+            out.writeByte(EXT_MAX_FRAME_SIZE);
+            out.writeShort(4);
+            out.writeInt(maxFrameSize);
+        }
+        if (compressions != 0) {
+            out.writeByte(EXT_COMPRESSIONS);
+            out.writeShort(1);
+            out.writeByte(compressions);
+        }
+        if (dictionaryId != 0) {
+            out.writeByte(EXT_DICTIONARY);
+            out.writeShort(4);
+            out.writeInt(dictionaryId);
+        }
+        if (protocolVersion != 0) {
+            out.writeByte(EXT_HELLO);
+            out.writeShort(6);
+            out.writeShort(protocolVersion);
+            out.writeInt(capabilities);
+        }
+        if (presetDictionary != null) {
+            out.writeByte(EXT_PRESET_DICTIONARY);
+            out.writeShort(Long.BYTES + presetDictionary.length);
+            out.writeLong(presetDictionaryVersion);
+            out.write(presetDictionary);
         }
     }
 
     @Override
     public void serialize(DataOutputStream out)
             throws IOException {
+        serialize((DataOutput) out);
+    }
+
+    /**
+     * Same as {@link #serialize(DataOutputStream)}, but out could write anywhere,
+     * like straight into a network buffer
+     */
+    public void serialize(DataOutput out)
+            throws IOException {
+        serializeHead(out);
+        if (encodedContents != null) {
+            encodedContents.write(this, out, keyDictionary);
+        } else {
+            writeContents(out, keyDictionary);
+        }
+        serializeTail(out);
+    }
+
+    /**
+     * Writes the fields before contents, which along with {@link #serializeTail(DataOutput)}
+     * are the ones differing between members a message is sent to
+     */
+    public void serializeHead(DataOutput out) throws IOException {
         out.writeShort(id);
         out.writeByte(type);
         out.writeByte(sequence);
@@ -220,47 +596,45 @@ public class SyncMessage implements ISyncMessage {
             String key = null;
             for (String key1 : keys) {
                 key = key1;
-                out.writeUTF(key);
+                writeKey(out, key, keyDictionary);
             }
             key = null;
             keys = null;
         } else {
             out.writeByte(0);
         }
-        if (this.expectedIds == null ||
-                this.expectedIds.size() == 0) {
-            out.writeShort(0);
-        } else {
-            out.writeShort(this.expectedIds.size());
-            for (Short expectedId : this.expectedIds) {
-                out.writeShort(expectedId);
-            }
-        }
+        writeIds(out, this.expectedIds);
+    }
 
-        out.writeInt(contents.size());
-        if (contents.size() == 0) {
-            return;
-        }
+    /**
+     * Writes the fields after contents
+     */
+    public void serializeTail(DataOutput out) throws IOException {
+        writeExtensions(out);
+    }
+
+    /**
+     * Writes a key of a content
+     */
+    interface KeyWriter {
+        void write(DataOutput out, String key) throws IOException;
+    }
 
+    void writeContents(DataOutput out, KeyDictionary keys) throws IOException {
+        writeContents(out, (o, key) -> writeKey(o, key, keys));
+    }
+
+    void writeContents(DataOutput out, KeyWriter keys) throws IOException {
+        out.writeInt(contents.size());
         for (SyncContent c : contents) {
-            if (c.getContent() == null ||
-                    c.getContent().length == 0) {
-                out.writeInt(0);
-            } else {
-                out.writeInt(c.getContent().length);
-                out.write(c.getContent());
+            int contentLen = c.getContentLength();
+            out.writeInt(contentLen);
+            if (contentLen > 0) {
+                c.writeContent(out);
             }
             out.writeLong(c.getVersion());
-            out.writeUTF(c.getKey());
-            if (c.getAwareIds() == null
-                    || c.getAwareIds().size() == 0) {
-                out.writeShort(0);
-            } else {
-                out.writeShort(c.getAwareIds().size());
-                for (Short aShort : c.getAwareIds()) {
-                    out.writeShort(aShort);
-                }
-            }
+            keys.write(out, c.getKey());
+            writeIds(out, c.getAwareIds());
         }
     }
 }
@@ -0,0 +1,43 @@
+package com.github.madzdns.clusterlet.codec;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * Unsigned varints of up to 21 bits, seven bits per byte with the lowest bits first
+ */
+final class Varint {
+
+    private Varint() {
+    }
+
+    static int sizeOf(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    static void write(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int read(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 21; shift += 7) {
+            int b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+}
@@ -0,0 +1,153 @@
+package com.github.madzdns.clusterlet.codec.mina;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
+
+/**
+ * Preset dictionaries of deflate. Small messages alike compress poorly on their own,
+ * but well with a dictionary holding what they have in common. Members share the
+ * dictionary of the cluster and frames refer to it by id, which is the Adler-32 of
+ * the dictionary like in zlib streams. Last few dictionaries are kept, so frames
+ * compressed with the previous one by a peer which didn't get the new one yet can
+ * still be read.
+ * <p>
+ * A dictionary can also be trained out of sampled payloads of received messages.
+ * It is simply the latest samples, since deflate finds strings near the end of the
+ * dictionary cheaper
+ */
+public class CompressionDictionaries {
+    /**
+     * Deflate does not look further back than this
+     */
+    public static final int MAX_SIZE = 32 * 1024;
+    private static final int KEPT = 4;
+    private static final int SAMPLE_EVERY = 8;
+    private static final int MAX_SAMPLE_SIZE = 1024;
+
+    /**
+     * A dictionary and its version. Newer versions replace older ones
+     */
+    public static class Dictionary {
+        private final int id;
+        private final long version;
+        private final byte[] data;
+
+        Dictionary(byte[] data, long version) {
+            Adler32 adler = new Adler32();
+            adler.update(data);
+            this.id = (int) adler.getValue();
+            this.version = version;
+            this.data = data;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private final Map<Integer, Dictionary> kept = new LinkedHashMap<>();
+    private volatile Dictionary current = null;
+    private final Deque<byte[]> samples = new ArrayDeque<>();
+    private int sampledBytes = 0;
+    private final AtomicLong received = new AtomicLong();
+
+    /**
+     * Makes dictionary the current one, if it is newer than the current one. Two
+     * dictionaries of the same version are ordered by id, so all members pick the same
+     *
+     * @return false if dictionary was not installed
+     */
+    public synchronized boolean install(byte[] data, long version) {
+        if (data == null || data.length == 0 || data.length > MAX_SIZE) {
+            return false;
+        }
+        Dictionary dictionary = new Dictionary(data, version);
+        Dictionary c = current;
+        if (c != null && (c.version > version || (c.version == version && c.id >= dictionary.id))) {
+            return false;
+        }
+        kept.put(dictionary.id, dictionary);
+        Iterator<Integer> it = kept.keySet().iterator();
+        while (kept.size() > KEPT) {
+            it.next();
+            it.remove();
+        }
+        current = dictionary;
+        return true;
+    }
+
+    /**
+     * @return the dictionary frames are compressed with or null if there is none
+     */
+    public Dictionary getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return the kept dictionary of id or null
+     */
+    synchronized Dictionary get(int id) {
+        return kept.get(id);
+    }
+
+    /**
+     * Keeps some of the received payloads to train a dictionary out of
+     */
+    public void sample(ByteBuffer payload) {
+        if (payload == null || !payload.hasRemaining() || received.incrementAndGet() % SAMPLE_EVERY != 0) {
+            return;
+        }
+        byte[] sample = new byte[Math.min(payload.remaining(), MAX_SAMPLE_SIZE)];
+        payload.duplicate().get(sample);
+        synchronized (samples) {
+            samples.add(sample);
+            sampledBytes += sample.length;
+            while (sampledBytes - samples.peek().length >= MAX_SIZE) {
+                sampledBytes -= samples.poll().length;
+            }
+        }
+    }
+
+    /**
+     * Trains a dictionary out of the samples, if enough is sampled and the current
+     * dictionary is older than maxAge milliseconds. Samples are dropped afterwards
+     *
+     * @return the trained dictionary or null
+     */
+    public byte[] train(long maxAge, long now) {
+        Dictionary c = current;
+        if (c != null && now - c.version < maxAge) {
+            return null;
+        }
+        synchronized (samples) {
+            if (sampledBytes < MAX_SIZE / 2) {
+                return null;
+            }
+            byte[] data = new byte[Math.min(sampledBytes, MAX_SIZE)];
+            int end = data.length;
+            for (Iterator<byte[]> it = samples.descendingIterator(); it.hasNext() && end > 0; ) {
+                byte[] sample = it.next();
+                int n = Math.min(sample.length, end);
+                System.arraycopy(sample, sample.length - n, data, end - n, n);
+                end -= n;
+            }
+            samples.clear();
+            sampledBytes = 0;
+            return data;
+        }
+    }
+}
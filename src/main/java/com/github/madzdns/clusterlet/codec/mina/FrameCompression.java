@@ -0,0 +1,272 @@
+package com.github.madzdns.clusterlet.codec.mina;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.github.madzdns.clusterlet.codec.SyncMessage;
+import com.github.madzdns.clusterlet.config.SyncConfig;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+
+/**
+ * Compression of single frames. The payload of a compressed frame is the length of
+ * the uncompressed payload as an int, followed by blocks. The flags of the frame tell
+ * the algorithm. Frames deflated with a preset dictionary have the id of the dictionary
+ * as an int before the blocks. A block is an int and that many bytes compressed on
+ * their own, or minus that many bytes as they are if the int is negative. Blocks one
+ * after another make the uncompressed payload. Frames are usually a single block, but
+ * frames sent to many members have their shared contents in a block of their own, so
+ * it is compressed only once. Deflaters and inflaters are pooled since they hold native
+ * memory which is costly to set up for every frame
+ */
+final class FrameCompression {
+    /*
+     * Algorithms all members of this version decode
+     */
+    static final byte SUPPORTED = SyncMessage.COMPRESSION_DEFLATE | SyncMessage.COMPRESSION_LZF;
+    private static final int MAX_POOLED = 32;
+    private static final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private static final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+    private FrameCompression() {
+    }
+
+    /**
+     * @return the algorithm frames are compressed with in mode or 0 if frames are
+     * not compressed one by one
+     */
+    static byte algorithmOf(SyncConfig.Compression mode) {
+        if (mode == SyncConfig.Compression.DEFLATE) {
+            return SyncMessage.COMPRESSION_DEFLATE;
+        } else if (mode == SyncConfig.Compression.LZF) {
+            return SyncMessage.COMPRESSION_LZF;
+        }
+        return 0;
+    }
+
+    /**
+     * @return CAP_ bits of compressions, which are COMPRESSION_ bits
+     */
+    static int capabilitiesOf(byte compressions) {
+        int capabilities = 0;
+        if ((compressions & SyncMessage.COMPRESSION_DEFLATE) != 0) {
+            capabilities |= SyncMessage.CAP_DEFLATE;
+        }
+        if ((compressions & SyncMessage.COMPRESSION_LZF) != 0) {
+            capabilities |= SyncMessage.CAP_LZF;
+        }
+        return capabilities;
+    }
+
+    static byte flagOf(byte algorithm) {
+        return algorithm == SyncMessage.COMPRESSION_DEFLATE ? SyncFrame.FLAG_DEFLATE : SyncFrame.FLAG_LZF;
+    }
+
+    /**
+     * @return number of bytes before the blocks of a compressed payload
+     */
+    static int headerSize(CompressionDictionaries.Dictionary dictionary) {
+        return dictionary != null ? 2 * Integer.BYTES : Integer.BYTES;
+    }
+
+    /**
+     * Compresses length bytes of in from offset into a new frame buffer of a single block,
+     * positioned at the end of the payload with room left for the header
+     *
+     * @return null if compressing does not make the payload smaller
+     */
+    static IoBuffer compress(byte algorithm, byte[] in, int offset, int length, boolean direct,
+                             CompressionDictionaries.Dictionary dictionary) {
+        byte[] block = compressBlock(algorithm, in, offset, length, dictionary);
+        if (block == null || headerSize(dictionary) + Integer.BYTES + block.length >= length) {
+            return null;
+        }
+        IoBuffer bb = IoBuffer.allocate(SyncFrame.HEADER_SIZE + headerSize(dictionary)
+                + Integer.BYTES + block.length, direct);
+        bb.position(SyncFrame.HEADER_SIZE);
+        putHeader(bb, length, dictionary);
+        putBlock(bb, block, 0, block.length, true);
+        return bb;
+    }
+
+    /**
+     * @return length bytes of in from offset compressed on their own, or null
+     * if they do not get smaller
+     */
+    static byte[] compressBlock(byte algorithm, byte[] in, int offset, int length,
+                                CompressionDictionaries.Dictionary dictionary) {
+        byte[] out;
+        int n;
+        if (algorithm == SyncMessage.COMPRESSION_LZF) {
+            out = new byte[Lzf.maxCompressedLength(length)];
+            n = Lzf.compress(in, offset, length, out, 0);
+        } else {
+            out = new byte[length];
+            Deflater deflater = deflaters.poll();
+            if (deflater == null) {
+                deflater = new Deflater();
+            }
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary.getData());
+                }
+                deflater.setInput(in, offset, length);
+                deflater.finish();
+                n = deflater.deflate(out);
+                if (!deflater.finished()) {
+                    n = length;
+                }
+            } finally {
+                deflater.reset();
+                release(deflaters, deflater);
+            }
+        }
+        if (n >= length) {
+            return null;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Puts what comes before the blocks of a compressed payload
+     *
+     * @param length of the uncompressed payload
+     */
+    static void putHeader(IoBuffer bb, int length, CompressionDictionaries.Dictionary dictionary) {
+        bb.putInt(length);
+        if (dictionary != null) {
+            bb.putInt(dictionary.getId());
+        }
+    }
+
+    static void putBlock(IoBuffer bb, byte[] data, int offset, int length, boolean compressed) {
+        bb.putInt(compressed ? length : -length);
+        bb.put(data, offset, length);
+    }
+
+    /**
+     * @param flags   of the frame
+     * @param payload compressed payload of the frame
+     * @return the uncompressed payload
+     */
+    static byte[] decompress(byte flags, byte[] payload, int maxFrameSize,
+                             CompressionDictionaries dictionaries) throws ProtocolDecoderException {
+        boolean preset = (flags & SyncFrame.FLAG_PRESET_DICTIONARY) != 0;
+        int header = preset ? 2 * Integer.BYTES : Integer.BYTES;
+        if (payload.length < header) {
+            throw new ProtocolDecoderException("Truncated compressed frame");
+        }
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        int length = in.getInt();
+        CompressionDictionaries.Dictionary dictionary = null;
+        if (preset) {
+            int id = in.getInt();
+            dictionary = dictionaries == null ? null : dictionaries.get(id);
+            if (dictionary == null || (flags & SyncFrame.FLAG_DEFLATE) == 0) {
+                throw new ProtocolDecoderException("Unknown compression dictionary " + id);
+            }
+        }
+        if (length < 0 || length > maxFrameSize) {
+            throw new ProtocolDecoderException("Compressed frame of " + length +
+                    " bytes exceeds the maximum frame size of " + maxFrameSize + " bytes");
+        }
+        byte[] out = new byte[length];
+        boolean lzf = (flags & SyncFrame.FLAG_LZF) != 0;
+        try {
+            int n = 0;
+            int p = header;
+            while (p < payload.length) {
+                if (payload.length - p < Integer.BYTES) {
+                    throw new DataFormatException("Truncated block header");
+                }
+                int block = ByteBuffer.wrap(payload, p, Integer.BYTES).getInt();
+                p += Integer.BYTES;
+                int size = block < 0 ? -block : block;
+                if (size < 0 || size > payload.length - p) {
+                    throw new DataFormatException("Block of " + size + " bytes runs past the frame");
+                }
+                if (block < 0) {
+                    if (size > length - n) {
+                        throw new DataFormatException("Blocks are longer than " + length + " bytes");
+                    }
+                    System.arraycopy(payload, p, out, n, size);
+                    n += size;
+                } else if (lzf) {
+                    n += Lzf.decompress(payload, p, size, out, n);
+                } else {
+                    n += inflate(payload, p, size, out, n, dictionary);
+                }
+                p += size;
+            }
+            if (n != length) {
+                throw new DataFormatException("Decompressed " + n + " bytes instead of " + length);
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new ProtocolDecoderException("Corrupted compressed frame: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Inflates a whole deflate stream of length bytes of in from offset into out from outOffset
+     *
+     * @return number of bytes inflated
+     */
+    static int inflate(byte[] in, int offset, int length, byte[] out, int outOffset,
+                       CompressionDictionaries.Dictionary dictionary) throws DataFormatException {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflater.setInput(in, offset, length);
+            int n = outOffset;
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(out, n, out.length - n);
+                if (inflated == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null) {
+                            throw new DataFormatException("Block needs a dictionary");
+                        }
+                        inflater.setDictionary(dictionary.getData());
+                    } else if (inflater.needsInput()) {
+                        throw new DataFormatException("Truncated deflate block");
+                    } else if (n == out.length) {
+                        throw new DataFormatException("Block inflates past the frame");
+                    } else {
+                        throw new DataFormatException("Deflate block makes no progress");
+                    }
+                }
+                n += inflated;
+            }
+            if (inflater.getRemaining() != 0) {
+                throw new DataFormatException("Trailing bytes after deflate block");
+            }
+            return n - outOffset;
+        } finally {
+            inflater.reset();
+            release(inflaters, inflater);
+        }
+    }
+
+    private static void release(Queue<Deflater> pool, Deflater deflater) {
+        if (pool.size() < MAX_POOLED) {
+            pool.add(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    private static void release(Queue<Inflater> pool, Inflater inflater) {
+        if (pool.size() < MAX_POOLED) {
+            pool.add(inflater);
+        } else {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.madzdns.clusterlet.codec.mina;
+
+import org.apache.mina.filter.codec.ProtocolEncoderException;
+
+/**
+ * Thrown when an encoded {@link com.github.madzdns.clusterlet.codec.SyncMessage} does not fit
+ * in the maximum frame size agreed with the peer. Nothing of the message is written, so the
+ * connection can still be used by other conversations
+ */
+public class FrameTooLargeException extends ProtocolEncoderException {
+    private static final long serialVersionUID = 1L;
+
+    private final int conversationId;
+    private final int frameSize;
+    private final int maxFrameSize;
+
+    public FrameTooLargeException(int conversationId, int frameSize, int maxFrameSize) {
+        super("Frame of " + frameSize + " bytes exceeds the maximum frame size of " + maxFrameSize + " bytes");
+        this.conversationId = conversationId;
+        this.frameSize = frameSize;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * @return the first FrameTooLargeException in the causes of e or null if there is not any
+     */
+    public static FrameTooLargeException find(Throwable e) {
+        while (e != null) {
+            if (e instanceof FrameTooLargeException) {
+                return (FrameTooLargeException) e;
+            }
+            e = e.getCause();
+        }
+        return null;
+    }
+
+    /**
+     * @return conversation of the rejected message or 0 if it was not in any
+     */
+    public int getConversationId() {
+        return conversationId;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.madzdns.clusterlet.codec.mina;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+import com.github.madzdns.clusterlet.codec.IBufferOutput;
+import com.github.madzdns.clusterlet.codec.ModifiedUtf8;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * {@link java.io.DataOutput} writing straight into an auto expanding {@link IoBuffer}, so
+ * messages can be serialized without an intermediate byte array. Output is
+ * byte for byte the same as of {@link java.io.DataOutputStream}
+ */
+final class IoBufferOutput implements IBufferOutput {
+    private final IoBuffer buf;
+
+    IoBufferOutput(IoBuffer buf) {
+        this.buf = buf;
+    }
+
+    @Override
+    public ByteBuffer reserve(int size) {
+        buf.expand(size);
+        return buf.buf();
+    }
+
+    @Override
+    public void write(int b) {
+        buf.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b) {
+        buf.put(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        buf.put(b, off, len);
+    }
+
+    @Override
+    public void writeBoolean(boolean v) {
+        buf.put((byte) (v ? 1 : 0));
+    }
+
+    @Override
+    public void writeByte(int v) {
+        buf.put((byte) v);
+    }
+
+    @Override
+    public void writeShort(int v) {
+        buf.putShort((short) v);
+    }
+
+    @Override
+    public void writeChar(int v) {
+        buf.putChar((char) v);
+    }
+
+    @Override
+    public void writeInt(int v) {
+        buf.putInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) {
+        buf.putLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v) {
+        buf.putFloat(v);
+    }
+
+    @Override
+    public void writeDouble(double v) {
+        buf.putDouble(v);
+    }
+
+    @Override
+    public void writeBytes(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buf.put((byte) s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeChars(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buf.putChar(s.charAt(i));
+        }
+    }
+
+    /**
+     * Writes s in modified UTF-8, the same as {@link java.io.DataOutputStream#writeUTF(String)}
+     */
+    @Override
+    public void writeUTF(String s) throws UTFDataFormatException {
+        int size = ModifiedUtf8.sizeOf(s);
+        if (size - 2 > ModifiedUtf8.MAX_LENGTH) {
+            throw new UTFDataFormatException("encoded string too long: " + (size - 2) + " bytes");
+        }
+        ModifiedUtf8.write(reserve(size), s);
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.madzdns.clusterlet.codec.mina;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * The LZF format of liblzf. It compresses less than deflate, but many times faster,
+ * which suits frames sent over fast links.
+ * <p>
+ * A block is a sequence of runs. A control byte below 32 is followed by that many
+ * plus one literal bytes. Otherwise its top three bits are the length of a back
+ * reference minus two, 7 meaning a byte with the rest of the length follows, and its
+ * low five bits and the byte after are the distance of the reference minus one
+ */
+final class Lzf {
+    private static final int HASH_LOG = 14;
+    private static final int MAX_LITERAL = 32;
+    private static final int MAX_OFFSET = 1 << 13;
+    private static final int MAX_REFERENCE = (1 << 8) + (1 << 3);
+
+    private Lzf() {
+    }
+
+    /**
+     * @return largest number of bytes compressing length bytes can take
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / MAX_LITERAL + 1;
+    }
+
+    /**
+     * Compresses length bytes of in from offset into out from outOffset, which must
+     * have {@link #maxCompressedLength(int)} bytes of room
+     *
+     * @return number of bytes written to out
+     */
+    static int compress(byte[] in, int offset, int length, byte[] out, int outOffset) {
+        int[] table = new int[1 << HASH_LOG];
+        int ip = offset;
+        int end = offset + length;
+        int op = outOffset + 1;
+        int literals = 0;
+        while (ip < end - 2) {
+            int hash = hash(in, ip);
+            int ref = table[hash] - 1;
+            table[hash] = ip + 1;
+            int distance = ip - ref - 1;
+            if (ref >= offset && distance < MAX_OFFSET
+                    && in[ref] == in[ip] && in[ref + 1] == in[ip + 1] && in[ref + 2] == in[ip + 2]) {
+                int max = Math.min(MAX_REFERENCE, end - ip);
+                int len = 3;
+                while (len < max && in[ref + len] == in[ip + len]) {
+                    len++;
+                }
+                if (literals > 0) {
+                    out[op - literals - 1] = (byte) (literals - 1);
+                    literals = 0;
+                } else {
+                    op--;
+                }
+                int stored = len - 2;
+                if (stored < 7) {
+                    out[op++] = (byte) ((distance >>> 8) + (stored << 5));
+                } else {
+                    out[op++] = (byte) ((distance >>> 8) + (7 << 5));
+                    out[op++] = (byte) (stored - 7);
+                }
+                out[op++] = (byte) distance;
+                op++;
+                ip += len;
+            } else {
+                out[op++] = in[ip++];
+                if (++literals == MAX_LITERAL) {
+                    out[op - literals - 1] = (byte) (literals - 1);
+                    literals = 0;
+                    op++;
+                }
+            }
+        }
+        while (ip < end) {
+            out[op++] = in[ip++];
+            if (++literals == MAX_LITERAL) {
+                out[op - literals - 1] = (byte) (literals - 1);
+                literals = 0;
+                op++;
+            }
+        }
+        if (literals > 0) {
+            out[op - literals - 1] = (byte) (literals - 1);
+        } else {
+            op--;
+        }
+        return op - outOffset;
+    }
+
+    /**
+     * Decompresses length bytes of in from offset into out from outOffset. The
+     * block must not refer back to anything before outOffset
+     *
+     * @return number of bytes decompressed
+     */
+    static int decompress(byte[] in, int offset, int length, byte[] out, int outOffset)
+            throws DataFormatException {
+        int ip = offset;
+        int end = offset + length;
+        int op = outOffset;
+        try {
+            while (ip < end) {
+                int ctrl = in[ip++] & 0xFF;
+                if (ctrl < MAX_LITERAL) {
+                    int len = ctrl + 1;
+                    if (ip + len > end || op + len > out.length) {
+                        throw new DataFormatException("Truncated literal run");
+                    }
+                    System.arraycopy(in, ip, out, op, len);
+                    ip += len;
+                    op += len;
+                } else {
+                    int len = ctrl >>> 5;
+                    int ref = op - ((ctrl & 0x1F) << 8) - 1;
+                    if (len == 7) {
+                        len += in[ip++] & 0xFF;
+                    }
+                    if (ip >= end) {
+                        throw new DataFormatException("Truncated back reference");
+                    }
+                    ref -= in[ip++] & 0xFF;
+                    len += 2;
+                    if (ref < outOffset || op + len > out.length) {
+                        throw new DataFormatException("Invalid back reference");
+                    }
+                    for (int i = 0; i < len; i++) {
+                        out[op++] = out[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new DataFormatException("Truncated block");
+        }
+        return op - outOffset;
+    }
+
+    private static int hash(byte[] in, int p) {
+        int v = ((in[p] & 0xFF) << 16) | ((in[p + 1] & 0xFF) << 8) | (in[p + 2] & 0xFF);
+        return (int) (((v * 2654435761L) & 0xFFFFFFFFL) >>> (32 - HASH_LOG));
+    }
+}
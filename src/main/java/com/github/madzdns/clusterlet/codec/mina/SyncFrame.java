@@ -0,0 +1,67 @@
+package com.github.madzdns.clusterlet.codec.mina;
+
+import com.github.madzdns.clusterlet.helper.Types;
+
+/**
+ * Framing of {@link com.github.madzdns.clusterlet.codec.SyncMessage}s on the wire.
+ * <p>
+ * A frame is [byte magic][byte version][byte flags][int length][payload]. Older peers
+ * use [short length][payload] instead. Since a legacy length is never negative, its
+ * first byte never equals the magic, which is how decoders tell them apart.
+ * Legacy framing is still written to peers which are not known to understand the
+ * new one, as long as the payload fits in it
+ */
+final class SyncFrame {
+    static final byte MAGIC = (byte) 0xC1;
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 3 * Types.Bytes + Integer.BYTES;
+    static final int LEGACY_HEADER_SIZE = Types.ShortBytes;
+    static final int LEGACY_MAX_LENGTH = Short.MAX_VALUE;
+
+    /*
+     * Flags of a frame. Ids in the payload are written compactly, keys with
+     * the key dictionary of the connection and the payload is compressed with
+     * deflate or LZF
+     */
+    static final byte FLAG_COMPACT_IDS = 0x01;
+    static final byte FLAG_KEY_DICTIONARY = 0x02;
+    static final byte FLAG_DEFLATE = 0x04;
+    static final byte FLAG_LZF = 0x08;
+    static final byte COMPRESSION_FLAGS = FLAG_DEFLATE | FLAG_LZF;
+    /*
+     * Payload is deflated with a preset dictionary
+     */
+    static final byte FLAG_PRESET_DICTIONARY = 0x10;
+    static final byte KNOWN_FLAGS = FLAG_COMPACT_IDS | FLAG_KEY_DICTIONARY | COMPRESSION_FLAGS
+            | FLAG_PRESET_DICTIONARY;
+
+    /*
+     * Capabilities of the peer
+     */
+    static final String PEER_CAPABILITIES_KEY = "_peercapabilities." + SyncFrame.class;
+    /*
+     * Maximum frame size the peer advertised
+     */
+    static final String PEER_MAX_FRAME_SIZE_KEY = "_peermaxframe." + SyncFrame.class;
+    /*
+     * Id of the compression dictionary the peer has and the one advertised to it
+     */
+    static final String PEER_DICTIONARY_KEY = "_peerdictionary." + SyncFrame.class;
+    static final String ADVERTISED_DICTIONARY_KEY = "_advertiseddictionary." + SyncFrame.class;
+    /*
+     * Id of the last compression dictionary passed on to the peer
+     */
+    static final String PASSED_DICTIONARY_KEY = "_passeddictionary." + SyncFrame.class;
+    /*
+     * Set on sessions our hello and maximum frame size are advertised on
+     */
+    static final String ADVERTISED_KEY = "_advertised." + SyncFrame.class;
+    /*
+     * Key dictionaries of the outgoing and incoming frames of sessions
+     */
+    static final String WRITE_KEYS_KEY = "_writekeys." + SyncFrame.class;
+    static final String READ_KEYS_KEY = "_readkeys." + SyncFrame.class;
+
+    private SyncFrame() {
+    }
+}
@@ -1,46 +1,120 @@
 package com.github.madzdns.clusterlet.codec.mina;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
+import java.nio.ByteBuffer;
 
+import com.github.madzdns.clusterlet.codec.KeyDictionary;
 import com.github.madzdns.clusterlet.codec.SyncMessage;
+import com.github.madzdns.clusterlet.config.SyncConfig;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.CumulativeProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
 import org.apache.mina.filter.codec.ProtocolDecoderOutput;
 
-import com.github.madzdns.clusterlet.helper.Types;
-
 @Slf4j
 public class SyncMinaDecoder extends CumulativeProtocolDecoder {
-    private static final String DECODE_STATE = "_state." + SyncMinaDecoder.class;
+    private final int maxFrameSize;
+    private final CompressionDictionaries dictionaries;
+
+    public SyncMinaDecoder() {
+        this(SyncConfig.DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param maxFrameSize largest payload in bytes this side accepts. Larger
+     *                     frames are rejected before they are buffered
+     */
+    public SyncMinaDecoder(int maxFrameSize) {
+        this(maxFrameSize, null);
+    }
+
+    /**
+     * @param dictionaries preset dictionaries frames deflated with them are read with
+     */
+    public SyncMinaDecoder(int maxFrameSize, CompressionDictionaries dictionaries) {
+        this.maxFrameSize = maxFrameSize;
+        this.dictionaries = dictionaries;
+    }
 
     @Override
     protected boolean doDecode(IoSession session, IoBuffer in,
                                ProtocolDecoderOutput out) throws Exception {
-        if (in.remaining() > 0) {
-            Short len = (Short) session.getAttribute(DECODE_STATE, (short) -1);
-            if (len == -1 && in.remaining() < Types.ShortBytes) {
+        int start = in.position();
+        int header;
+        int len;
+        byte flags = 0;
+        if (in.remaining() > 0 && in.get(start) == SyncFrame.MAGIC) {
+            if (in.remaining() < SyncFrame.HEADER_SIZE) {
                 return false;
-            } else if (len == -1) {
-                len = in.getShort();
-                session.setAttribute(DECODE_STATE, len);
             }
-            if (in.remaining() < len) {
-                return false;
+            byte version = in.get(start + 1);
+            if (version != SyncFrame.VERSION) {
+                throw new ProtocolDecoderException("Unsupported frame version " + version);
+            }
+            flags = in.get(start + 2);
+            if ((flags & ~SyncFrame.KNOWN_FLAGS) != 0) {
+                throw new ProtocolDecoderException("Unsupported frame flags " + flags);
             }
+            header = SyncFrame.HEADER_SIZE;
+            len = in.getInt(start + 3);
+        } else if (in.remaining() >= SyncFrame.LEGACY_HEADER_SIZE) {
+            header = SyncFrame.LEGACY_HEADER_SIZE;
+            len = in.getShort(start);
+        } else {
+            return false;
+        }
+        if (len < 0 || len > maxFrameSize) {
+            throw new ProtocolDecoderException("Frame of " + len +
+                    " bytes exceeds the maximum frame size of " + maxFrameSize + " bytes");
+        }
+        if (in.remaining() < header + len) {
+            return false;
+        }
+        in.skip(header);
 
-            SyncMessage msg = new SyncMessage();
-            byte[] data = new byte[len];
-            in.get(data);
-            try (DataInputStream ins = new DataInputStream(new ByteArrayInputStream(data))) {
-                msg.deserialize(ins);
-                out.write(msg);
-                session.removeAttribute(DECODE_STATE);
-                return true;
+        /*
+         * Buffer of the session is reused once this returns, so the frame is copied
+         * once. Contents of the message are views of the copy
+         */
+        SyncMessage msg = new SyncMessage();
+        msg.setCompactIds((flags & SyncFrame.FLAG_COMPACT_IDS) != 0);
+        if ((flags & SyncFrame.FLAG_KEY_DICTIONARY) != 0) {
+            KeyDictionary keys = (KeyDictionary) session.getAttribute(SyncFrame.READ_KEYS_KEY);
+            if (keys == null) {
+                keys = new KeyDictionary();
+                session.setAttribute(SyncFrame.READ_KEYS_KEY, keys);
+            }
+            msg.setKeyDictionary(keys);
+        }
+        byte[] frame = new byte[len];
+        in.get(frame);
+        if ((flags & SyncFrame.COMPRESSION_FLAGS) != 0) {
+            if ((flags & SyncFrame.COMPRESSION_FLAGS) == SyncFrame.COMPRESSION_FLAGS) {
+                throw new ProtocolDecoderException("Frame is compressed with more than one algorithm");
             }
+            frame = FrameCompression.decompress(flags, frame, maxFrameSize, dictionaries);
+        }
+        msg.deserialize(ByteBuffer.wrap(frame));
+        if (msg.getMaxFrameSize() > 0) {
+            session.setAttribute(SyncFrame.PEER_MAX_FRAME_SIZE_KEY, msg.getMaxFrameSize());
+        }
+        if (msg.getProtocolVersion() > 0) {
+            /*
+             * Peers from before the handshake are written to the way all versions read
+             */
+            session.setAttribute(SyncFrame.PEER_CAPABILITIES_KEY, msg.getCapabilities());
+        }
+        if (msg.getDictionaryId() != 0) {
+            session.setAttribute(SyncFrame.PEER_DICTIONARY_KEY, msg.getDictionaryId());
+        }
+        if (msg.getPresetDictionary() != null && dictionaries != null) {
+            /*
+             * Older ones than ours are ignored, ours goes back to the peer instead
+             */
+            dictionaries.install(msg.getPresetDictionary(), msg.getPresetDictionaryVersion());
         }
-        return false;
+        out.write(msg);
+        return true;
     }
 }
@@ -1,20 +1,95 @@
 package com.github.madzdns.clusterlet.codec.mina;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.nio.BufferOverflowException;
-
+import com.github.madzdns.clusterlet.codec.KeyDictionary;
+import com.github.madzdns.clusterlet.codec.SyncContent;
 import com.github.madzdns.clusterlet.codec.SyncMessage;
+import com.github.madzdns.clusterlet.config.SyncConfig;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolEncoder;
 import org.apache.mina.filter.codec.ProtocolEncoderOutput;
 
-import com.github.madzdns.clusterlet.helper.Types;
-
+/**
+ * Serializes {@link SyncMessage}s straight into the {@link IoBuffer} which is written
+ * to the session. Room for the frame header is left at the start of the buffer and
+ * the header is filled in once the length of the payload is known. Buffers come from
+ * the {@link IoBuffer#getAllocator() allocator} of MINA, so they are pooled if a
+ * caching allocator is set there
+ */
 @Slf4j
 public class SyncMinaEncoder implements ProtocolEncoder {
+    /*
+     * Fixed part of a message, of each content and of a passed dictionary, besides the
+     * variable length fields
+     */
+    private static final int MESSAGE_OVERHEAD = 64;
+    private static final int CONTENT_OVERHEAD = 32;
+    private static final int DICTIONARY_OVERHEAD = 16;
+    private static final byte[] NOT_SMALLER = new byte[0];
+    /*
+     * Features all encoders support, besides the configured ones
+     */
+    private static final int BASE_CAPABILITIES = SyncMessage.CAP_FRAMED | SyncMessage.CAP_COMPACT_IDS
+            | SyncMessage.CAP_KEY_DICTIONARY | SyncMessage.CAP_CONVERSATIONS;
+
+    private final int maxFrameSize;
+    private final boolean direct;
+    private final byte compression;
+    private final boolean advertiseCompressions;
+    private final int compressionThreshold;
+    private final CompressionDictionaries dictionaries;
+    private final int capabilities;
+
+    public SyncMinaEncoder() {
+        this(SyncConfig.DEFAULT_MAX_FRAME_SIZE, false);
+    }
+
+    /**
+     * @param maxFrameSize largest payload in bytes this side sends and accepts
+     * @param direct       whether to encode into direct buffers
+     */
+    public SyncMinaEncoder(int maxFrameSize, boolean direct) {
+        this.maxFrameSize = maxFrameSize;
+        this.direct = direct;
+        this.compression = 0;
+        this.advertiseCompressions = false;
+        this.compressionThreshold = SyncConfig.DEFAULT_COMPRESSION_THRESHOLD;
+        this.dictionaries = null;
+        this.capabilities = BASE_CAPABILITIES;
+    }
+
+    /**
+     * Encoder with the frame size, buffers and compression of config
+     */
+    public SyncMinaEncoder(SyncConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param dictionaries preset dictionaries frames are deflated with, once the peer
+     *                     tells it has got the current one
+     */
+    public SyncMinaEncoder(SyncConfig config, CompressionDictionaries dictionaries) {
+        this.maxFrameSize = config.getMaxFrameSize();
+        this.direct = config.isDirectBuffers();
+        this.compression = FrameCompression.algorithmOf(config.getCompression());
+        /*
+         * With stream compression, frames are already compressed by the filter
+         */
+        this.advertiseCompressions = config.getCompression() != SyncConfig.Compression.STREAM;
+        this.compressionThreshold = config.getCompressionThreshold();
+        this.dictionaries = advertiseCompressions ? dictionaries : null;
+        int capabilities = BASE_CAPABILITIES;
+        if (advertiseCompressions) {
+            capabilities |= FrameCompression.capabilitiesOf(FrameCompression.SUPPORTED);
+        }
+        if (this.dictionaries != null) {
+            capabilities |= SyncMessage.CAP_PRESET_DICTIONARY;
+        }
+        this.capabilities = capabilities;
+    }
+
     @Override
     public void dispose(IoSession session) {
     }
@@ -26,18 +101,336 @@ public class SyncMinaEncoder implements ProtocolEncoder {
             return;
         }
         SyncMessage message = (SyncMessage) in;
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        try (DataOutputStream os = new DataOutputStream(stream)) {
-            message.serialize(os);
-            int mlen = os.size();
-            if (mlen == Integer.MAX_VALUE) {
-                throw new BufferOverflowException();
-            }
-            IoBuffer bb = IoBuffer.allocate(mlen + Types.ShortBytes);
-            bb.putShort((short) mlen);
-            bb.put(stream.toByteArray());
+        boolean advertise = session.setAttributeIfAbsent(SyncFrame.ADVERTISED_KEY, true) == null;
+        /*
+         * Until peer tells its capabilities, messages are written the way all versions read
+         */
+        int common = getCommonCapabilities(session);
+        boolean compactIds = (common & SyncMessage.CAP_COMPACT_IDS) != 0;
+        KeyDictionary keys = (common & SyncMessage.CAP_KEY_DICTIONARY) != 0 ? getKeyDictionary(session) : null;
+        int dictionaryId = advertiseDictionary(session);
+        CompressionDictionaries.Dictionary passed = passDictionary(session, common, message);
+        if (advertise || compactIds != message.isCompactIds() || keys != message.getKeyDictionary()
+                || dictionaryId != 0 || passed != null) {
+            message = message.duplicate();
+            message.setCompactIds(compactIds);
+            message.setKeyDictionary(keys);
+            message.setDictionaryId(dictionaryId);
+            if (passed != null) {
+                message.setPresetDictionary(passed.getData(), passed.getVersion());
+            }
+            if (advertise) {
+                /*
+                 * First message of this side tells peer its version, what it supports
+                 * and how large frames it accepts. Members from before the handshake
+                 * only read the latter two
+                 */
+                message.setProtocolVersion(SyncMessage.PROTOCOL_VERSION);
+                message.setCapabilities(capabilities);
+                message.setMaxFrameSize(maxFrameSize);
+                if (advertiseCompressions) {
+                    message.setCompressions(FrameCompression.SUPPORTED);
+                }
+            }
+        }
+        if (keys == null) {
+            encodeFrame(session, message, common, out);
+            return;
+        }
+        /*
+         * Slots of the dictionary must reach the peer in the order they are assigned,
+         * so the frame is passed down the chain before another one is encoded
+         */
+        synchronized (keys) {
+            keys.begin();
+            try {
+                encodeFrame(session, message, common, out);
+            } catch (Exception e) {
+                keys.rollback();
+                throw e;
+            }
+            out.flush();
+        }
+    }
+
+    private void encodeFrame(IoSession session, SyncMessage message, int common,
+                             ProtocolEncoderOutput out) throws Exception {
+        boolean framed = (common & SyncMessage.CAP_FRAMED) != 0;
+        if (framed && message.hasSharedContents()) {
+            IoBuffer shared = encodeSharedFrame(session, message, common);
+            if (shared != null) {
+                out.write(shared);
+                return;
+            }
+        }
+        IoBuffer bb = IoBuffer.allocate(SyncFrame.HEADER_SIZE + estimateSize(message), direct);
+        bb.setAutoExpand(true);
+        bb.position(SyncFrame.HEADER_SIZE);
+        message.serialize(new IoBufferOutput(bb));
+        int mlen = bb.position() - SyncFrame.HEADER_SIZE;
+        try {
+            checkFrameSize(session, message, mlen);
+        } catch (FrameTooLargeException e) {
+            bb.free();
+            throw e;
+        }
+        byte flags = flagsOf(message);
+        if (framed && shouldCompress(common, mlen)) {
+            CompressionDictionaries.Dictionary dictionary = getDictionary(session, common);
+            IoBuffer compressed = compress(bb, mlen, dictionary);
+            if (compressed != null) {
+                bb.free();
+                bb = compressed;
+                mlen = bb.position() - SyncFrame.HEADER_SIZE;
+                flags |= compressionFlagsOf(dictionary);
+            }
+        }
+        bb.flip();
+        if (mlen > SyncFrame.LEGACY_MAX_LENGTH || framed) {
+            putHeader(bb, flags, mlen);
+        } else {
+            /*
+             * Legacy header is shorter, so the frame starts later in the buffer
+             */
+            int start = SyncFrame.HEADER_SIZE - SyncFrame.LEGACY_HEADER_SIZE;
+            bb.putShort(start, (short) mlen);
+            bb.position(start);
+        }
+        out.write(bb);
+    }
+
+    /**
+     * Encodes a compressed frame of a message whose contents are shared by frames sent to
+     * other members. Contents are compressed once for all of them, in a block of their own,
+     * and fields differing between members are put around it as they are
+     *
+     * @return the frame, or null if it should be encoded the usual way
+     */
+    private IoBuffer encodeSharedFrame(IoSession session, SyncMessage message, int common)
+            throws Exception {
+        byte[] contents = message.getSharedContents();
+        if (!shouldCompress(common, contents.length)) {
+            return null;
+        }
+        CompressionDictionaries.Dictionary dictionary = getDictionary(session, common);
+        int dictionaryId = dictionary == null ? 0 : dictionary.getId();
+        byte[] block = message.getSharedCompressed(compression, dictionaryId);
+        if (block == null) {
+            block = FrameCompression.compressBlock(compression, contents, 0, contents.length, dictionary);
+            if (block == null) {
+                block = NOT_SMALLER;
+            }
+            message.setSharedCompressed(compression, dictionaryId, block);
+        }
+        /*
+         * Blocks around the contents take three ints
+         */
+        if (block.length == 0 || block.length + 3 * Integer.BYTES >= contents.length) {
+            return null;
+        }
+        IoBuffer fields = IoBuffer.allocate(MESSAGE_OVERHEAD, false);
+        fields.setAutoExpand(true);
+        IoBufferOutput fieldsOut = new IoBufferOutput(fields);
+        message.serializeHead(fieldsOut);
+        int head = fields.position();
+        message.serializeTail(fieldsOut);
+        int tail = fields.position() - head;
+        int mlen = head + contents.length + tail;
+        try {
+            checkFrameSize(session, message, mlen);
+            IoBuffer bb = IoBuffer.allocate(SyncFrame.HEADER_SIZE + FrameCompression.headerSize(dictionary)
+                    + 3 * Integer.BYTES + head + block.length + tail, direct);
+            bb.position(SyncFrame.HEADER_SIZE);
+            FrameCompression.putHeader(bb, mlen, dictionary);
+            byte[] array = fields.array();
+            int offset = fields.arrayOffset();
+            FrameCompression.putBlock(bb, array, offset, head, false);
+            FrameCompression.putBlock(bb, block, 0, block.length, true);
+            FrameCompression.putBlock(bb, array, offset + head, tail, false);
+            int length = bb.position() - SyncFrame.HEADER_SIZE;
             bb.flip();
-            out.write(bb);
+            putHeader(bb, (byte) (flagsOf(message) | compressionFlagsOf(dictionary)), length);
+            return bb;
+        } finally {
+            fields.free();
+        }
+    }
+
+    /**
+     * @throws FrameTooLargeException if a payload of mlen bytes is larger than this
+     *                                side or the peer accepts
+     */
+    private void checkFrameSize(IoSession session, SyncMessage message, int mlen) throws FrameTooLargeException {
+        int limit = frameLimit(session);
+        if (mlen > limit) {
+            throw new FrameTooLargeException(message.getConversationId(), mlen, limit);
+        }
+    }
+
+    /**
+     * @return largest payload both sides accept
+     */
+    private int frameLimit(IoSession session) {
+        Integer peerMax = (Integer) session.getAttribute(SyncFrame.PEER_MAX_FRAME_SIZE_KEY);
+        return peerMax != null && peerMax < maxFrameSize ? peerMax : maxFrameSize;
+    }
+
+    private static byte flagsOf(SyncMessage message) {
+        byte flags = 0;
+        if (message.isCompactIds()) {
+            flags |= SyncFrame.FLAG_COMPACT_IDS;
+        }
+        if (message.getKeyDictionary() != null) {
+            flags |= SyncFrame.FLAG_KEY_DICTIONARY;
+        }
+        return flags;
+    }
+
+    private byte compressionFlagsOf(CompressionDictionaries.Dictionary dictionary) {
+        byte flags = FrameCompression.flagOf(compression);
+        if (dictionary != null) {
+            flags |= SyncFrame.FLAG_PRESET_DICTIONARY;
+        }
+        return flags;
+    }
+
+    private static void putHeader(IoBuffer bb, byte flags, int mlen) {
+        bb.put(0, SyncFrame.MAGIC);
+        bb.put(1, SyncFrame.VERSION);
+        bb.put(2, flags);
+        bb.putInt(3, mlen);
+    }
+
+    private boolean shouldCompress(int common, int mlen) {
+        if (compression == 0 || mlen < compressionThreshold) {
+            return false;
+        }
+        return (common & FrameCompression.capabilitiesOf(compression)) != 0;
+    }
+
+    /**
+     * @return capabilities of this side the peer supports as well
+     */
+    private int getCommonCapabilities(IoSession session) {
+        Integer peer = (Integer) session.getAttribute(SyncFrame.PEER_CAPABILITIES_KEY);
+        return peer == null ? 0 : peer & capabilities;
+    }
+
+    /**
+     * @return id of the current dictionary if the peer is yet to be told about it, or 0
+     */
+    private int advertiseDictionary(IoSession session) {
+        if (dictionaries == null) {
+            return 0;
+        }
+        CompressionDictionaries.Dictionary current = dictionaries.getCurrent();
+        if (current == null) {
+            return 0;
+        }
+        Integer advertised = (Integer) session.getAttribute(SyncFrame.ADVERTISED_DICTIONARY_KEY);
+        if (advertised != null && advertised == current.getId()) {
+            return 0;
+        }
+        session.setAttribute(SyncFrame.ADVERTISED_DICTIONARY_KEY, current.getId());
+        return current.getId();
+    }
+
+    /**
+     * @return the current dictionary if the peer supports dictionaries but has not got
+     * it and it is yet to be passed on this connection, or null. It waits for a message
+     * it fits in the frame with
+     */
+    private CompressionDictionaries.Dictionary passDictionary(IoSession session, int common,
+                                                              SyncMessage message) {
+        if (dictionaries == null || (common & SyncMessage.CAP_PRESET_DICTIONARY) == 0) {
+            return null;
+        }
+        CompressionDictionaries.Dictionary current = dictionaries.getCurrent();
+        if (current == null || current.getData().length > SyncMessage.MAX_PRESET_DICTIONARY) {
+            return null;
+        }
+        Integer peer = (Integer) session.getAttribute(SyncFrame.PEER_DICTIONARY_KEY);
+        Integer passed = (Integer) session.getAttribute(SyncFrame.PASSED_DICTIONARY_KEY);
+        if ((peer != null && peer == current.getId()) || (passed != null && passed == current.getId())) {
+            return null;
+        }
+        if (estimateSize(message) + DICTIONARY_OVERHEAD + current.getData().length > frameLimit(session)) {
+            return null;
+        }
+        session.setAttribute(SyncFrame.PASSED_DICTIONARY_KEY, current.getId());
+        return current;
+    }
+
+    /**
+     * @return the current dictionary if peer has it as well, so it can inflate frames
+     * deflated with it
+     */
+    private CompressionDictionaries.Dictionary getDictionary(IoSession session, int common) {
+        if (dictionaries == null || compression != SyncMessage.COMPRESSION_DEFLATE
+                || (common & SyncMessage.CAP_PRESET_DICTIONARY) == 0) {
+            return null;
+        }
+        CompressionDictionaries.Dictionary current = dictionaries.getCurrent();
+        Integer peer = (Integer) session.getAttribute(SyncFrame.PEER_DICTIONARY_KEY);
+        if (current == null || peer == null || peer != current.getId()) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * @param bb holding the payload after room for the header
+     * @return a new buffer with the compressed payload or null if it is not smaller
+     */
+    private IoBuffer compress(IoBuffer bb, int mlen, CompressionDictionaries.Dictionary dictionary) {
+        if (bb.hasArray()) {
+            return FrameCompression.compress(compression, bb.array(), bb.arrayOffset() + SyncFrame.HEADER_SIZE,
+                    mlen, direct, dictionary);
+        }
+        byte[] payload = new byte[mlen];
+        IoBuffer view = bb.duplicate();
+        view.flip();
+        view.position(SyncFrame.HEADER_SIZE);
+        view.get(payload);
+        return FrameCompression.compress(compression, payload, 0, mlen, direct, dictionary);
+    }
+
+    private static KeyDictionary getKeyDictionary(IoSession session) {
+        KeyDictionary keys = (KeyDictionary) session.getAttribute(SyncFrame.WRITE_KEYS_KEY);
+        if (keys == null) {
+            keys = new KeyDictionary();
+            KeyDictionary existing = (KeyDictionary) session.setAttributeIfAbsent(SyncFrame.WRITE_KEYS_KEY, keys);
+            if (existing != null) {
+                keys = existing;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return roughly the serialized size of message, so that the
+     * buffer rarely needs to expand
+     */
+    private static int estimateSize(SyncMessage message) {
+        int size = MESSAGE_OVERHEAD;
+        if (message.getKeyChain() != null) {
+            for (String key : message.getKeyChain()) {
+                size += key.length() + 2;
+            }
+        }
+        if (message.getExpectedIds() != null) {
+            size += message.getExpectedIds().size() * 2;
+        }
+        for (SyncContent c : message.getContents()) {
+            size += CONTENT_OVERHEAD;
+            if (c.getKey() != null) {
+                size += c.getKey().length();
+            }
+            size += c.getContentLength();
+            if (c.getAwareIds() != null) {
+                size += c.getAwareIds().size() * 2;
+            }
         }
+        return size;
     }
 }
@@ -4,6 +4,7 @@ import java.util.List;
 
 public class SocketBindConfig {
 	private List<SocketConfig> socketConfigs = null;
+	private SocketOptions socketOptions = new SocketOptions();
 	public List<SocketConfig> getSocketConfigs() {
 		return socketConfigs;
 	}
@@ -11,4 +12,15 @@ public class SocketBindConfig {
 	public void setSocketConfigs(List<SocketConfig> socketConfigs) {
 		this.socketConfigs = socketConfigs;
 	}
+
+	/**
+	 * @return tuning of the listening socket and the connections it accepts
+	 */
+	public SocketOptions getSocketOptions() {
+		return socketOptions;
+	}
+
+	public void setSocketOptions(SocketOptions socketOptions) {
+		this.socketOptions = socketOptions;
+	}
 }
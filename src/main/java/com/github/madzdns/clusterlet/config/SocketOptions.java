@@ -0,0 +1,126 @@
+package com.github.madzdns.clusterlet.config;
+
+import org.apache.mina.transport.socket.SocketSessionConfig;
+
+/**
+ * TCP and I/O tuning of sync sockets. Values of -1 leave the
+ * corresponding option to the operating system or MINA default
+ */
+public class SocketOptions {
+    public static final int DEFAULT = -1;
+    public static final int DEFAULT_PROCESSOR_COUNT = Runtime.getRuntime().availableProcessors() + 1;
+    public static final int DEFAULT_BACKLOG = 50;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 60000;
+
+    /*
+     * Sync frames are small request/responses, so Nagle's algorithm
+     * together with delayed ACKs would only add latency to each round trip
+     */
+    private boolean tcpNoDelay = true;
+    private boolean keepAlive = false;
+    private int sendBufferSize = DEFAULT;
+    private int receiveBufferSize = DEFAULT;
+    private int readBufferSize = DEFAULT;
+    private int backlog = DEFAULT_BACKLOG;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int processorCount = DEFAULT_PROCESSOR_COUNT;
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * @return SO_SNDBUF in bytes
+     */
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    /**
+     * @return SO_RCVBUF in bytes
+     */
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * @return initial size in bytes of the buffer MINA reads sockets into
+     */
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    public void setReadBufferSize(int readBufferSize) {
+        this.readBufferSize = readBufferSize;
+    }
+
+    /**
+     * @return length of the queue of pending connections. Only used by listeners
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * @return milliseconds to wait for an outbound connect. Only used by senders
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return number of I/O processor threads
+     */
+    public int getProcessorCount() {
+        return processorCount;
+    }
+
+    public void setProcessorCount(int processorCount) {
+        this.processorCount = processorCount;
+    }
+
+    /**
+     * Sets per connection options of this on config
+     */
+    public void applyTo(SocketSessionConfig config) {
+        config.setTcpNoDelay(tcpNoDelay);
+        config.setKeepAlive(keepAlive);
+        if (sendBufferSize > 0) {
+            config.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            config.setReceiveBufferSize(receiveBufferSize);
+        }
+        if (readBufferSize > 0) {
+            config.setReadBufferSize(readBufferSize);
+        }
+    }
+}
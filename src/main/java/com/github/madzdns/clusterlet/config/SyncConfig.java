@@ -2,11 +2,106 @@ package com.github.madzdns.clusterlet.config;
 
 public class SyncConfig {
 
+    /**
+     * How a sync session picks one of the addresses of a member to connect to
+     */
+    public enum ConnectStrategy {
+        /**
+         * Addresses are tried one at a time. The next one is tried only
+         * after connecting to the current one failed
+         */
+        SEQUENTIAL,
+        /**
+         * Addresses are raced. Connects are started one after another
+         * with a delay of {@link #getConnectStaggerDelay()} and the first one
+         * getting connected wins
+         */
+        PARALLEL
+    }
+
+    /**
+     * Kind of threads running callbacks of received messages
+     */
+    public enum CallbackExecution {
+        /**
+         * A bounded pool of {@link #getCallbackThreads()} platform threads
+         */
+        PLATFORM,
+        /**
+         * Up to {@link #getVirtualCallbackThreads()} virtual threads. Falls back
+         * to {@link #PLATFORM} if the JVM does not support virtual threads
+         */
+        VIRTUAL
+    }
+
+    /**
+     * How messages are compressed on the wire
+     */
+    public enum Compression {
+        /**
+         * Whole connections are compressed with deflate, like older versions do.
+         * Connections opened by members using other modes are not compressed
+         */
+        STREAM,
+        /**
+         * Nothing is compressed, except connections opened by members using {@link #STREAM}
+         */
+        NONE,
+        /**
+         * Messages of at least {@link #getCompressionThreshold()} bytes are compressed
+         * with deflate, if the peer supports it. This is the default
+         */
+        DEFLATE,
+        /**
+         * Like {@link #DEFLATE}, but with LZF which is faster and compresses less
+         */
+        LZF
+    }
+
+    /**
+     * What happens to members a quorum sync is still waiting for, once every message
+     * is decided and the result is given
+     */
+    public enum QuorumStragglers {
+        /**
+         * They keep syncing in the background until they are done or the sync times out
+         */
+        CONTINUE,
+        /**
+         * Their sessions are cancelled
+         */
+        CANCEL
+    }
+
+    public static final long DEFAULT_CONNECT_STAGGER_DELAY = 250;
+    public static final int DEFAULT_CALLBACK_THREADS = 16;
+    public static final int DEFAULT_CALLBACK_QUEUE_CAPACITY = 10000;
+    public static final int DEFAULT_VIRTUAL_CALLBACK_THREADS = 10000;
+    public static final long DEFAULT_SYNC_TIMEOUT = 60000;
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 512;
+    public static final long DEFAULT_COMPRESSION_DICTIONARY_REFRESH = 60 * 60 * 1000;
+
     private String clusterStorageConfigPath,
             keyStorePath, trustStorePath,
             keyStorePassword, trustStorePassword,
             keyStorePassword2nd,
             certificatePath;
+    private ConnectStrategy connectStrategy = ConnectStrategy.SEQUENTIAL;
+    private long connectStaggerDelay = DEFAULT_CONNECT_STAGGER_DELAY;
+    private SocketOptions outboundSocketOptions = new SocketOptions();
+    private int callbackThreads = DEFAULT_CALLBACK_THREADS;
+    private int callbackQueueCapacity = DEFAULT_CALLBACK_QUEUE_CAPACITY;
+    private CallbackExecution callbackExecution = CallbackExecution.PLATFORM;
+    private int virtualCallbackThreads = DEFAULT_VIRTUAL_CALLBACK_THREADS;
+    private long syncTimeout = DEFAULT_SYNC_TIMEOUT;
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private boolean directBuffers = false;
+    private Compression compression = Compression.DEFLATE;
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private boolean compressionDictionary = false;
+    private long compressionDictionaryRefresh = DEFAULT_COMPRESSION_DICTIONARY_REFRESH;
+    private QuorumStragglers quorumStragglers = QuorumStragglers.CONTINUE;
 
     public SyncConfig(String clusterStorageConfigPath,
                       String keyStorePath,
@@ -49,4 +144,167 @@ public class SyncConfig {
     public String getCertificatePath() {
         return certificatePath;
     }
+
+    public ConnectStrategy getConnectStrategy() {
+        return connectStrategy;
+    }
+
+    public void setConnectStrategy(ConnectStrategy connectStrategy) {
+        this.connectStrategy = connectStrategy;
+    }
+
+    /**
+     * @return milliseconds to wait for a connect before starting the next one
+     * in {@link ConnectStrategy#PARALLEL} strategy
+     */
+    public long getConnectStaggerDelay() {
+        return connectStaggerDelay;
+    }
+
+    public void setConnectStaggerDelay(long connectStaggerDelay) {
+        this.connectStaggerDelay = connectStaggerDelay;
+    }
+
+    /**
+     * @return tuning of connections made to other members. It must be set
+     * before the first sync, since the connector is created only once
+     */
+    public SocketOptions getOutboundSocketOptions() {
+        return outboundSocketOptions;
+    }
+
+    public void setOutboundSocketOptions(SocketOptions outboundSocketOptions) {
+        this.outboundSocketOptions = outboundSocketOptions;
+    }
+
+    /**
+     * @return maximum number of threads running callbacks of received messages.
+     * Listeners and senders each have a pool of this size. A value of 0 runs
+     * callbacks on I/O threads
+     */
+    public int getCallbackThreads() {
+        return callbackThreads;
+    }
+
+    public void setCallbackThreads(int callbackThreads) {
+        this.callbackThreads = callbackThreads;
+    }
+
+    /**
+     * @return number of received events that can wait for callback threads
+     * before sessions stop being read
+     */
+    public int getCallbackQueueCapacity() {
+        return callbackQueueCapacity;
+    }
+
+    public void setCallbackQueueCapacity(int callbackQueueCapacity) {
+        this.callbackQueueCapacity = callbackQueueCapacity;
+    }
+
+    public CallbackExecution getCallbackExecution() {
+        return callbackExecution;
+    }
+
+    public void setCallbackExecution(CallbackExecution callbackExecution) {
+        this.callbackExecution = callbackExecution;
+    }
+
+    /**
+     * @return maximum number of virtual threads running callbacks in
+     * {@link CallbackExecution#VIRTUAL} execution
+     */
+    public int getVirtualCallbackThreads() {
+        return virtualCallbackThreads;
+    }
+
+    public void setVirtualCallbackThreads(int virtualCallbackThreads) {
+        this.virtualCallbackThreads = virtualCallbackThreads;
+    }
+
+    /**
+     * @return milliseconds a sync can wait for its members. Members not done by then
+     * are reported as failed. Zero or less means syncs wait forever
+     */
+    public long getSyncTimeout() {
+        return syncTimeout;
+    }
+
+    public void setSyncTimeout(long syncTimeout) {
+        this.syncTimeout = syncTimeout;
+    }
+
+    public QuorumStragglers getQuorumStragglers() {
+        return quorumStragglers;
+    }
+
+    public void setQuorumStragglers(QuorumStragglers quorumStragglers) {
+        this.quorumStragglers = quorumStragglers;
+    }
+
+    /**
+     * @return largest encoded message in bytes this member sends or accepts. Peers
+     * advertise theirs, so the smaller of the two limits is used for sending
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * @return whether outgoing messages are encoded into direct buffers
+     */
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    public void setDirectBuffers(boolean directBuffers) {
+        this.directBuffers = directBuffers;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @return smallest encoded message in bytes which is compressed, when messages
+     * are compressed one by one
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * @return whether a preset dictionary is trained out of received messages and
+     * passed on to other members. It is used with {@link Compression#DEFLATE} only
+     */
+    public boolean isCompressionDictionary() {
+        return compressionDictionary;
+    }
+
+    public void setCompressionDictionary(boolean compressionDictionary) {
+        this.compressionDictionary = compressionDictionary;
+    }
+
+    /**
+     * @return milliseconds a trained dictionary is used before a new one is trained
+     */
+    public long getCompressionDictionaryRefresh() {
+        return compressionDictionaryRefresh;
+    }
+
+    public void setCompressionDictionaryRefresh(long compressionDictionaryRefresh) {
+        this.compressionDictionaryRefresh = compressionDictionaryRefresh;
+    }
 }
@@ -0,0 +1,314 @@
+package com.github.madzdns.clusterlet;
+
+import com.github.madzdns.clusterlet.codec.IMessage;
+import com.github.madzdns.clusterlet.config.SocketBindConfig;
+import com.github.madzdns.clusterlet.config.SocketConfig;
+import com.github.madzdns.clusterlet.config.SyncConfig;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Members of a cluster running in this JVM on ephemeral ports of loopback. Unlike the
+ * JCS stores, whose messages are shared by all contexts of a JVM, every member here
+ * keeps its members and messages to itself
+ */
+@Slf4j
+class LocalCluster implements AutoCloseable {
+    private final Map<Short, SyncContext> contexts = new LinkedHashMap<>();
+    private final Map<Short, Integer> ports = new HashMap<>();
+    private final List<SyncServer> servers = new ArrayList<>();
+    private final List<HungPeer> hungPeers = new ArrayList<>();
+
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class TestMessage implements IMessage {
+        private String key;
+        private long version;
+        private String payload;
+
+        @Override
+        public void close() {
+
+        }
+
+        @Override
+        public void configure(Map<String, ?> config) {
+
+        }
+
+        @Override
+        public void deserialize(byte[] data) {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+                key = in.readUTF();
+                version = in.readLong();
+                payload = in.readUTF();
+            } catch (Exception e) {
+                log.error("", e);
+            }
+        }
+
+        @Override
+        public byte[] serialize() {
+            try (ByteArrayOutputStream stream = new ByteArrayOutputStream()) {
+                DataOutputStream out = new DataOutputStream(stream);
+                out.writeUTF(key);
+                out.writeLong(version);
+                out.writeUTF(payload);
+                return stream.toByteArray();
+            } catch (Exception e) {
+                log.error("{}, {}", key, version, e);
+                return null;
+            }
+        }
+    }
+
+    interface Receiver {
+        boolean received(IMessage message);
+    }
+
+    /**
+     * @return callback giving received messages to receiver
+     */
+    static ISyncCallback callback(Receiver receiver) {
+        return new ISyncCallback() {
+            @Override
+            public boolean callBack(ISession session, IMessage message, Set<Short> withNodes, ISyncProtocolOutput out) {
+                return receiver.received(message);
+            }
+
+            @Override
+            public void result(SyncFeature syncFeature) {
+
+            }
+        };
+    }
+
+    static class MemoryClusterStore implements IClusterStore {
+        private final Map<Short, Member> members = new ConcurrentHashMap<>();
+
+        @Override
+        public void update(Member node) {
+            members.put(node.getId(), node);
+        }
+
+        @Override
+        public Member get(Short id) {
+            return members.get(id);
+        }
+
+        @Override
+        public void shutdown() {
+            members.clear();
+        }
+
+        @Override
+        public void iterator(IClusterStoreIteratorCallback callbak) {
+            members.values().forEach(callbak::next);
+        }
+    }
+
+    static class MemoryMessageStore implements IMessageStore {
+        private final Map<String, Long> versions = new HashMap<>();
+        private final Map<String, Set<Short>> awareNodes = new HashMap<>();
+
+        @Override
+        public synchronized void updateAwareNodes(String key, long version, Set<Short> nodes) {
+            Long current = versions.get(key);
+            if (current == null || current < version) {
+                versions.put(key, version);
+                awareNodes.put(key, nodes);
+            } else if (current == version) {
+                awareNodes.get(key).addAll(nodes);
+            }
+        }
+
+        @Override
+        public synchronized Set<Short> getAwareNodes(String key, long version) {
+            Long current = versions.get(key);
+            return current != null && current == version ? awareNodes.get(key) : null;
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            versions.clear();
+            awareNodes.clear();
+        }
+    }
+
+    /**
+     * A peer accepting connections without ever answering them
+     */
+    static class HungPeer implements Closeable {
+        private final ServerSocket server = new ServerSocket(0);
+        private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+        private final AtomicInteger accepted = new AtomicInteger();
+        private final CountDownLatch received = new CountDownLatch(1);
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        HungPeer() throws IOException {
+            Thread t = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        sockets.add(socket);
+                        accepted.incrementAndGet();
+                        Thread reader = new Thread(() -> read(socket), "hung peer reader");
+                        reader.setDaemon(true);
+                        reader.start();
+                    }
+                } catch (IOException e) {
+                    log.debug("hung peer is closed");
+                }
+            }, "hung peer");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private void read(Socket socket) {
+            try (InputStream in = socket.getInputStream()) {
+                while (in.read() != -1) {
+                    received.countDown();
+                }
+            } catch (IOException e) {
+                log.debug("", e);
+            }
+            closed.countDown();
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        int getAccepted() {
+            return accepted.get();
+        }
+
+        boolean awaitReceived(long timeout, TimeUnit unit) throws InterruptedException {
+            return received.await(timeout, unit);
+        }
+
+        /**
+         * @return true if the other side closed a connection it made
+         */
+        boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+            return closed.await(timeout, unit);
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    static SyncConfig config() {
+        return new SyncConfig(null, null, null, null, null, null, null);
+    }
+
+    SyncContext start(short id, ISyncCallback callback) throws Exception {
+        return start(id, callback, config());
+    }
+
+    /**
+     * Starts member id listening on a free port of loopback
+     */
+    SyncContext start(short id, ISyncCallback callback, SyncConfig config) throws Exception {
+        return start(id, config, context -> context.make()
+                .withCallBack(callback)
+                .withEncoder(TestMessage::new));
+    }
+
+    /**
+     * Starts member id listening with the handler listener makes of its context
+     */
+    SyncContext start(short id, SyncConfig config, Function<SyncContext, SyncHandler> listener) throws Exception {
+        SyncContext context = new SyncContext(id, config, new MemoryClusterStore(), new MemoryMessageStore());
+        int port = freePort();
+        SocketBindConfig binding = new SocketBindConfig();
+        binding.setSocketConfigs(Collections.singletonList(new SocketConfig("127.0.0.1:" + port)));
+        SyncServer server = new SyncServer(listener.apply(context), binding);
+        server.start();
+        contexts.put(id, context);
+        ports.put(id, port);
+        servers.add(server);
+        return context;
+    }
+
+    /**
+     * Makes member id a {@link HungPeer}
+     */
+    HungPeer hang(short id) throws IOException {
+        HungPeer peer = new HungPeer();
+        ports.put(id, peer.getPort());
+        hungPeers.add(peer);
+        return peer;
+    }
+
+    SyncContext context(short id) {
+        return contexts.get(id);
+    }
+
+    Member.ClusterAddress address(short id) {
+        return new Member.ClusterAddress("127.0.0.1", ports.get(id));
+    }
+
+    /**
+     * Makes every started member know all the others
+     */
+    void join() {
+        for (short to : contexts.keySet()) {
+            for (short id : ports.keySet()) {
+                introduce(to, id);
+            }
+        }
+    }
+
+    /**
+     * Makes member to know members ids
+     */
+    void introduce(short to, short... ids) {
+        SyncContext context = contexts.get(to);
+        for (short id : ids) {
+            if (id != to) {
+                context.updateMember(new Member(id, Collections.singleton(address(id)),
+                        false, true, "", new Date().getTime(), null, Member.STATE_VLD));
+            }
+        }
+        context.inStartup = false;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (SyncServer server : servers) {
+            server.stop();
+        }
+        for (SyncContext context : contexts.values()) {
+            context.shutdown();
+        }
+        for (HungPeer peer : hungPeers) {
+            peer.close();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.github.madzdns.clusterlet;
+
+import com.github.madzdns.clusterlet.LocalCluster.HungPeer;
+import com.github.madzdns.clusterlet.LocalCluster.TestMessage;
+import com.github.madzdns.clusterlet.config.SyncConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuorumSyncTest {
+    final static short sender = 1;
+    final static short fast1 = 2;
+    final static short fast2 = 3;
+    final static short straggler = 4;
+    final static String key = "QuorumKey";
+    LocalCluster cluster;
+
+    private static class Progress implements ISyncProgressListener {
+        final Set<Short> synced = Collections.synchronizedSet(new HashSet<>());
+        final CountDownLatch stragglerSynced = new CountDownLatch(1);
+        final CountDownLatch quorumReached = new CountDownLatch(1);
+
+        @Override
+        public void synced(String key, short memberId) {
+            synced.add(memberId);
+            if (memberId == straggler) {
+                stragglerSynced.countDown();
+            }
+        }
+
+        @Override
+        public void quorumReached(String key) {
+            quorumReached.countDown();
+        }
+    }
+
+    @BeforeEach
+    public void beforeEach() {
+        cluster = new LocalCluster();
+    }
+
+    @AfterEach
+    public void afterEach() throws Exception {
+        cluster.close();
+    }
+
+    private static SyncConfig config(SyncConfig.QuorumStragglers stragglers) {
+        SyncConfig config = LocalCluster.config();
+        config.setQuorumStragglers(stragglers);
+        return config;
+    }
+
+    private SyncHandler make(SyncType type, Progress progress) {
+        return cluster.context(sender).make(type)
+                .withCluster(fast1, fast2, straggler)
+                .withProgressListener(progress)
+                .withCallBack(LocalCluster.callback(message -> true))
+                .withEncoder(TestMessage::new);
+    }
+
+    private static Map<Short, Boolean> membersOf(SyncResult result) {
+        Map<Short, Boolean> members = new TreeMap<>();
+        result.getSyncedMembers().forEach(id -> members.put(id, true));
+        result.getFailedMembers().forEach(id -> members.put(id, false));
+        return members;
+    }
+
+    private static void assertQuorum(SyncFeature feature) {
+        SyncResult result = feature.get(key);
+        assertNotNull(result);
+        assertTrue(result.isSuccessful());
+        assertTrue(result.getSyncedMembers().containsAll(Arrays.asList(fast1, fast2)), "synced " + result.getSyncedMembers());
+        assertFalse(result.getSyncedMembers().contains(straggler));
+        assertFalse(result.getFailedMembers().contains(straggler));
+    }
+
+    /**
+     * Member 4 does not answer until released
+     */
+    private CountDownLatch startUnicast(SyncConfig.QuorumStragglers stragglers, CountDownLatch entered) throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        cluster.start(sender, LocalCluster.callback(message -> true), config(stragglers));
+        cluster.start(fast1, LocalCluster.callback(message -> true));
+        cluster.start(fast2, LocalCluster.callback(message -> true));
+        cluster.start(straggler, LocalCluster.callback(message -> {
+            entered.countDown();
+            try {
+                return release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }));
+        cluster.join();
+        return release;
+    }
+
+    @Test
+    public void unicastQuorum_completesAtMajorityAndStragglerContinues() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = startUnicast(SyncConfig.QuorumStragglers.CONTINUE, entered);
+        Progress progress = new Progress();
+        CompletableFuture<SyncFeature> future = make(SyncType.UNICAST_QUORUM, progress)
+                .syncAsync(new TestMessage(key, 1, "payload"));
+        SyncFeature feature = future.get(5, TimeUnit.SECONDS);
+        assertTrue(entered.await(5, TimeUnit.SECONDS), "straggler should have got the message");
+        assertQuorum(feature);
+        assertTrue(progress.quorumReached.await(5, TimeUnit.SECONDS));
+        Map<Short, Boolean> delivered = membersOf(feature.get(key));
+
+        release.countDown();
+        assertTrue(progress.stragglerSynced.await(5, TimeUnit.SECONDS), "straggler should go on syncing");
+        assertEquals(delivered, membersOf(feature.get(key)), "delivered result should not change");
+        assertFalse(feature.get(key).getSyncedMembers().contains(straggler));
+    }
+
+    @Test
+    public void unicastQuorum_completesAtMajorityAndStragglerIsCancelled() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = startUnicast(SyncConfig.QuorumStragglers.CANCEL, entered);
+        Progress progress = new Progress();
+        CompletableFuture<SyncFeature> future = make(SyncType.UNICAST_QUORUM, progress)
+                .syncAsync(new TestMessage(key, 1, "payload"));
+        SyncFeature feature = future.get(5, TimeUnit.SECONDS);
+        assertQuorum(feature);
+        Map<Short, Boolean> delivered = membersOf(feature.get(key));
+
+        entered.await(5, TimeUnit.SECONDS);
+        release.countDown();
+        assertFalse(progress.stragglerSynced.await(1, TimeUnit.SECONDS), "cancelled straggler should not be heard of");
+        assertFalse(progress.synced.contains(straggler));
+        assertEquals(delivered, membersOf(feature.get(key)), "delivered result should not change");
+    }
+
+    /**
+     * Member 2 forwards the ring to 3, neither of them knows the hung member 4
+     */
+    private HungPeer startRing(SyncConfig.QuorumStragglers stragglers) throws Exception {
+        cluster.start(sender, LocalCluster.callback(message -> true), config(stragglers));
+        cluster.start(fast1, LocalCluster.callback(message -> true));
+        cluster.start(fast2, LocalCluster.callback(message -> true));
+        HungPeer peer = cluster.hang(straggler);
+        cluster.introduce(sender, fast1, fast2, straggler);
+        cluster.introduce(fast1, sender, fast2);
+        cluster.introduce(fast2, sender, fast1);
+        return peer;
+    }
+
+    @Test
+    public void ringQuorum_completesAtMajorityAndStragglerContinues() throws Exception {
+        HungPeer peer = startRing(SyncConfig.QuorumStragglers.CONTINUE);
+        CompletableFuture<SyncFeature> future = make(SyncType.RING_QUORUM, new Progress())
+                .withTimeout(1, TimeUnit.SECONDS)
+                .syncAsync(new TestMessage(key, 1, "payload"));
+        SyncFeature feature = future.get(5, TimeUnit.SECONDS);
+        assertQuorum(feature);
+        Map<Short, Boolean> delivered = membersOf(feature.get(key));
+
+        assertTrue(peer.awaitReceived(5, TimeUnit.SECONDS), "ring should go on to the straggler");
+        assertTrue(peer.awaitClosed(5, TimeUnit.SECONDS), "straggler should be given up at the deadline");
+        assertEquals(delivered, membersOf(feature.get(key)), "delivered result should not change");
+    }
+
+    @Test
+    public void ringQuorum_completesAtMajorityAndStragglerIsCancelled() throws Exception {
+        HungPeer peer = startRing(SyncConfig.QuorumStragglers.CANCEL);
+        CompletableFuture<SyncFeature> future = make(SyncType.RING_QUORUM, new Progress())
+                .withTimeout(1, TimeUnit.SECONDS)
+                .syncAsync(new TestMessage(key, 1, "payload"));
+        SyncFeature feature = future.get(5, TimeUnit.SECONDS);
+        assertQuorum(feature);
+        Map<Short, Boolean> delivered = membersOf(feature.get(key));
+
+        Thread.sleep(1500);
+        assertEquals(0, peer.getAccepted(), "ring should not go on to the straggler");
+        assertEquals(delivered, membersOf(feature.get(key)), "delivered result should not change");
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.madzdns.clusterlet;
+
+import com.github.madzdns.clusterlet.LocalCluster.TestMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SyncAckTest {
+    final static short sender1 = 1;
+    final static short member = 2;
+    final static short sender2 = 3;
+    final static String key = "AckKey";
+    LocalCluster cluster;
+    AtomicInteger callbacks;
+
+    @BeforeEach
+    public void beforeEach() throws Exception {
+        callbacks = new AtomicInteger();
+        cluster = new LocalCluster();
+        cluster.start(sender1, LocalCluster.callback(message -> true));
+        cluster.start(member, LocalCluster.callback(message -> {
+            callbacks.incrementAndGet();
+            return true;
+        }));
+        cluster.start(sender2, LocalCluster.callback(message -> true));
+        cluster.join();
+    }
+
+    @AfterEach
+    public void afterEach() throws Exception {
+        cluster.close();
+    }
+
+    private SyncFeature sync(short sender, ISyncProgressListener progress) throws Exception {
+        return cluster.context(sender).make(SyncType.UNICAST)
+                .withCluster(member)
+                .withCallBack(LocalCluster.callback(message -> true))
+                .withEncoder(TestMessage::new)
+                .withProgressListener(progress)
+                .syncAsync(new TestMessage(key, 7, "payload"))
+                .get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void knownVersion_isAckedWithoutCallback() throws Exception {
+        SyncFeature first = sync(sender1, new ISyncProgressListener() {
+        });
+        assertTrue(first.get(key).getSyncedMembers().contains(member));
+        assertEquals(1, callbacks.get());
+
+        /*
+         * Other sender does not know the member has got this version yet,
+         * so it is only learned from the ack
+         */
+        assertNull(cluster.context(sender2).getAwareNodes(key, 7));
+        Set<Short> synced = ConcurrentHashMap.newKeySet();
+        SyncFeature second = sync(sender2, new ISyncProgressListener() {
+            @Override
+            public void synced(String key, short memberId) {
+                synced.add(memberId);
+            }
+        });
+        assertEquals(1, callbacks.get(), "known version should not be given to the callback again");
+        assertTrue(second.get(key).isSuccessful());
+        assertTrue(second.get(key).getSyncedMembers().contains(member), "synced " + second.get(key).getSyncedMembers());
+        assertFalse(second.get(key).getFailedMembers().contains(member));
+        assertTrue(synced.contains(member));
+        assertTrue(cluster.context(sender2).getAwareNodes(key, 7).contains(member));
+    }
+}
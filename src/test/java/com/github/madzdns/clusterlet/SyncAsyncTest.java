@@ -0,0 +1,143 @@
+package com.github.madzdns.clusterlet;
+
+import com.github.madzdns.clusterlet.LocalCluster.HungPeer;
+import com.github.madzdns.clusterlet.LocalCluster.TestMessage;
+import com.github.madzdns.clusterlet.codec.IMessage;
+import com.github.madzdns.clusterlet.config.SyncConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SyncAsyncTest {
+    final static short sender = 1;
+    final static short fast1 = 2;
+    final static short fast2 = 3;
+    final static short slow = 4;
+    final static String key = "AsyncKey";
+    LocalCluster cluster;
+    CountDownLatch slowEntered;
+    CountDownLatch release;
+    CountDownLatch slowDone;
+
+    /**
+     * Counts results given to it, which syncs completing a future should not give
+     */
+    private static class Results implements ISyncCallback {
+        final AtomicInteger results = new AtomicInteger();
+
+        @Override
+        public boolean callBack(ISession session, IMessage message, Set<Short> withNodes, ISyncProtocolOutput out) {
+            return true;
+        }
+
+        @Override
+        public void result(SyncFeature syncFeature) {
+            results.incrementAndGet();
+        }
+    }
+
+    @BeforeEach
+    public void beforeEach() throws Exception {
+        slowEntered = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        slowDone = new CountDownLatch(1);
+        cluster = new LocalCluster();
+        SyncConfig config = LocalCluster.config();
+        config.setQuorumStragglers(SyncConfig.QuorumStragglers.CONTINUE);
+        cluster.start(sender, LocalCluster.callback(message -> true), config);
+        cluster.start(fast1, LocalCluster.callback(message -> true));
+        cluster.start(fast2, LocalCluster.callback(message -> true));
+        cluster.start(slow, LocalCluster.callback(message -> {
+            slowEntered.countDown();
+            try {
+                return release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return false;
+            } finally {
+                slowDone.countDown();
+            }
+        }));
+    }
+
+    @AfterEach
+    public void afterEach() throws Exception {
+        release.countDown();
+        cluster.close();
+    }
+
+    private boolean isPooled(short id) {
+        return cluster.context(sender).getTransport().acquire(id, cluster.address(id)) != null;
+    }
+
+    @Test
+    public void syncAsync_completesExactlyOnce() throws Exception {
+        cluster.join();
+        Results results = new Results();
+        AtomicInteger completions = new AtomicInteger();
+        CompletableFuture<SyncFeature> future = cluster.context(sender).make(SyncType.UNICAST_QUORUM)
+                .withCluster(fast1, fast2, slow)
+                .withCallBack(results)
+                .withEncoder(TestMessage::new)
+                .withTimeout(1, TimeUnit.SECONDS)
+                .syncAsync(new TestMessage(key, 1, "payload"));
+        future.whenComplete((r, e) -> completions.incrementAndGet());
+        SyncFeature feature = future.get(5, TimeUnit.SECONDS);
+        assertTrue(feature.get(key).isSuccessful());
+
+        /*
+         * The straggler answers and then the deadline passes, after the result
+         */
+        assertTrue(slowEntered.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        assertTrue(slowDone.await(5, TimeUnit.SECONDS));
+        Thread.sleep(1500);
+        assertEquals(1, completions.get());
+        assertSame(feature, future.getNow(null));
+        assertFalse(future.isCompletedExceptionally());
+        assertEquals(0, results.results.get(), "result should only be given through the future");
+    }
+
+    @Test
+    public void syncAsync_cancelReleasesSessions() throws Exception {
+        HungPeer hung = cluster.hang((short) 5);
+        cluster.join();
+        Results results = new Results();
+        AtomicInteger completions = new AtomicInteger();
+        CompletableFuture<SyncFeature> future = cluster.context(sender).make(SyncType.UNICAST)
+                .withCluster(fast1, slow, (short) 5)
+                .withCallBack(results)
+                .withEncoder(TestMessage::new)
+                .syncAsync(new TestMessage(key, 1, "payload"));
+        future.whenComplete((r, e) -> completions.incrementAndGet());
+        assertTrue(slowEntered.await(5, TimeUnit.SECONDS));
+        assertTrue(hung.awaitReceived(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 50 && !isPooled(fast1); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(isPooled(fast1), "member answered should be pooled");
+        assertFalse(future.isDone());
+
+        assertTrue(future.cancel(true));
+        assertTrue(future.isDone());
+        assertTrue(future.isCancelled());
+        assertTrue(hung.awaitClosed(5, TimeUnit.SECONDS), "session of the hung member should be ended");
+
+        /*
+         * The slow member answering after the cancel changes nothing
+         */
+        release.countDown();
+        assertTrue(slowDone.await(5, TimeUnit.SECONDS));
+        Thread.sleep(500);
+        assertEquals(1, completions.get());
+        assertEquals(0, results.results.get());
+        assertTrue(isPooled(fast1), "connection of the member done before the cancel should stay pooled");
+    }
+}
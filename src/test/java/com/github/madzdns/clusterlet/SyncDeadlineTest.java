@@ -0,0 +1,67 @@
+package com.github.madzdns.clusterlet;
+
+import com.github.madzdns.clusterlet.LocalCluster.HungPeer;
+import com.github.madzdns.clusterlet.LocalCluster.TestMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SyncDeadlineTest {
+    final static short sender = 1;
+    final static short answering = 2;
+    final static short hung = 3;
+    final static String key = "DeadlineKey";
+    LocalCluster cluster;
+    HungPeer peer;
+
+    @BeforeEach
+    public void beforeEach() throws Exception {
+        cluster = new LocalCluster();
+        cluster.start(sender, LocalCluster.callback(message -> true));
+        cluster.start(answering, LocalCluster.callback(message -> true));
+        peer = cluster.hang(hung);
+        cluster.join();
+    }
+
+    @AfterEach
+    public void afterEach() throws Exception {
+        cluster.close();
+    }
+
+    private SyncHandler make() {
+        return cluster.context(sender).make(SyncType.UNICAST)
+                .withCluster(answering, hung)
+                .withCallBack(LocalCluster.callback(message -> true))
+                .withEncoder(TestMessage::new)
+                .withTimeout(500, TimeUnit.MILLISECONDS);
+    }
+
+    private void assertHungFailed(SyncFeature feature) throws InterruptedException {
+        SyncResult result = feature.get(key);
+        assertNotNull(result);
+        assertTrue(result.getFailedMembers().contains(hung), "failed " + result.getFailedMembers());
+        assertTrue(result.getSyncedMembers().contains(answering), "synced " + result.getSyncedMembers());
+        assertFalse(result.getSyncedMembers().contains(hung));
+        assertTrue(peer.awaitReceived(5, TimeUnit.SECONDS), "message should have reached the peer");
+        assertTrue(peer.awaitClosed(5, TimeUnit.SECONDS), "session of the hung member should be cancelled");
+    }
+
+    @Test
+    public void get_returnsWhenMemberNeverAnswers() throws Exception {
+        long start = System.nanoTime();
+        SyncFeature feature = make().sync(new TestMessage(key, 1, "payload")).get();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        assertHungFailed(feature);
+    }
+
+    @Test
+    public void syncAsync_completesWhenMemberNeverAnswers() throws Exception {
+        CompletableFuture<SyncFeature> future = make().syncAsync(new TestMessage(key, 1, "payload"));
+        assertHungFailed(future.get(5, TimeUnit.SECONDS));
+    }
+}
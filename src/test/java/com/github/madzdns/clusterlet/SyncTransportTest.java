@@ -0,0 +1,156 @@
+package com.github.madzdns.clusterlet;
+
+import com.github.madzdns.clusterlet.LocalCluster.TestMessage;
+import com.github.madzdns.clusterlet.codec.SyncMessage;
+import com.github.madzdns.clusterlet.codec.mina.LegacyPeer;
+import com.github.madzdns.clusterlet.config.SyncConfig;
+import org.apache.mina.core.session.IoSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SyncTransportTest {
+    final static short sender = 1;
+    final static short member = 2;
+    LocalCluster cluster;
+    Listener listener;
+
+    /**
+     * Listener of member keeping track of the connections and conversations it serves
+     */
+    private static class Listener extends SyncHandler {
+        final Map<Long, Set<Integer>> conversations = new ConcurrentHashMap<>();
+        final boolean legacy;
+
+        Listener(SyncContext ctx, boolean legacy) {
+            super(ctx);
+            this.me = ctx.getMyInfo();
+            this.legacy = legacy;
+        }
+
+        @Override
+        public void sessionCreated(IoSession session) {
+            if (legacy) {
+                LegacyPeer.withoutHello(session);
+            }
+            conversations.put(session.getId(), ConcurrentHashMap.newKeySet());
+            super.sessionCreated(session);
+        }
+
+        @Override
+        public void messageReceived(IoSession session, Object message) throws Exception {
+            conversations.get(session.getId()).add(((SyncMessage) message).getConversationId());
+            super.messageReceived(session, message);
+        }
+    }
+
+    @BeforeEach
+    public void beforeEach() {
+        cluster = new LocalCluster();
+    }
+
+    @AfterEach
+    public void afterEach() throws Exception {
+        cluster.close();
+    }
+
+    private void start(boolean legacy, SyncConfig config, LocalCluster.Receiver receiver) throws Exception {
+        cluster.start(sender, LocalCluster.callback(message -> true));
+        cluster.start(member, config, context -> {
+            listener = new Listener(context, legacy);
+            return listener.withCallBack(LocalCluster.callback(receiver))
+                    .withEncoder(TestMessage::new);
+        });
+        cluster.join();
+    }
+
+    private CompletableFuture<SyncFeature> sync(String key, String payload) {
+        return cluster.context(sender).make(SyncType.UNICAST)
+                .withCluster(member)
+                .withCallBack(LocalCluster.callback(message -> true))
+                .withEncoder(TestMessage::new)
+                .withTimeout(5, TimeUnit.SECONDS)
+                .syncAsync(new TestMessage(key, 1, payload));
+    }
+
+    private static void assertSynced(String key, SyncFeature feature) {
+        assertTrue(feature.get(key).getSyncedMembers().contains(member), "synced " + feature.get(key).getSyncedMembers());
+        assertFalse(feature.get(key).getFailedMembers().contains(member));
+    }
+
+    private boolean isPooled() {
+        return cluster.context(sender).getTransport().acquire(member, cluster.address(member)) != null;
+    }
+
+    @Test
+    public void concurrentConversations_shareOnePooledConnection() throws Exception {
+        start(false, LocalCluster.config(), message -> true);
+        assertSynced("first", sync("first", "payload").get(5, TimeUnit.SECONDS));
+        assertTrue(isPooled());
+
+        CompletableFuture<SyncFeature> second = sync("second", "payload");
+        CompletableFuture<SyncFeature> third = sync("third", "payload");
+        assertSynced("second", second.get(5, TimeUnit.SECONDS));
+        assertSynced("third", third.get(5, TimeUnit.SECONDS));
+
+        assertEquals(1, listener.conversations.size(), "all conversations should use one connection");
+        Set<Integer> conversations = listener.conversations.values().iterator().next();
+        assertEquals(3, conversations.size(), "conversations " + conversations);
+        assertFalse(conversations.contains(0));
+    }
+
+    @Test
+    public void legacyPeer_isNotPooled() throws Exception {
+        start(true, LocalCluster.config(), message -> true);
+        assertSynced("first", sync("first", "payload").get(5, TimeUnit.SECONDS));
+        assertFalse(isPooled());
+        assertSynced("second", sync("second", "payload").get(5, TimeUnit.SECONDS));
+        assertFalse(isPooled());
+        assertEquals(2, listener.conversations.size(), "every conversation should get its own connection");
+    }
+
+    @Test
+    public void tooLargeFrame_failsOnlyItsConversation() throws Exception {
+        CountDownLatch slowEntered = new CountDownLatch(1);
+        CountDownLatch largeDone = new CountDownLatch(1);
+        SyncConfig config = LocalCluster.config();
+        config.setMaxFrameSize(4096);
+        start(false, config, message -> {
+            if (message.getKey().equals("slow")) {
+                slowEntered.countDown();
+                try {
+                    largeDone.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            return true;
+        });
+        assertSynced("first", sync("first", "payload").get(5, TimeUnit.SECONDS));
+        assertTrue(isPooled());
+
+        CompletableFuture<SyncFeature> slow = sync("slow", "payload");
+        assertTrue(slowEntered.await(5, TimeUnit.SECONDS));
+        StringBuilder payload = new StringBuilder();
+        while (payload.length() < 8192) {
+            payload.append("a payload larger than a frame ");
+        }
+        SyncFeature large = sync("large", payload.toString()).get(5, TimeUnit.SECONDS);
+        largeDone.countDown();
+        assertTrue(large.get("large").getFailedMembers().contains(member), "too large message should fail");
+
+        assertSynced("slow", slow.get(5, TimeUnit.SECONDS));
+        assertTrue(isPooled(), "connection should outlive the failed conversation");
+        assertSynced("after", sync("after", "payload").get(5, TimeUnit.SECONDS));
+        assertEquals(1, listener.conversations.size(), "all conversations should use one connection");
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.madzdns.clusterlet.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IdSetsTest {
+
+    private static Set<Short> ids(int... ids) {
+        Set<Short> set = new HashSet<>();
+        for (int id : ids) {
+            set.add((short) id);
+        }
+        return set;
+    }
+
+    private static byte[] write(Set<Short> ids) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        IdSets.write(new DataOutputStream(bytes), ids);
+        return bytes.toByteArray();
+    }
+
+    private static Set<Short> assertRoundTrip(Set<Short> ids, byte form) throws IOException {
+        byte[] bytes = write(ids);
+        assertEquals(form, bytes[0]);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        Set<Short> read = IdSets.read(in);
+        assertFalse(in.hasRemaining());
+        return read;
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertNull(assertRoundTrip(new HashSet<>(), IdSets.EMPTY));
+        assertNull(assertRoundTrip(null, IdSets.EMPTY));
+        assertEquals(1, write(null).length);
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        Set<Short> ids = ids(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        assertEquals(ids, assertRoundTrip(ids, IdSets.RANGE));
+        assertEquals(3, write(ids).length);
+        assertEquals(ids(42), assertRoundTrip(ids(42), IdSets.RANGE));
+    }
+
+    @Test
+    public void testBitset() throws Exception {
+        Set<Short> ids = ids(1, 3, 4, 6, 9, 10, 12, 15, 16);
+        assertEquals(ids, assertRoundTrip(ids, IdSets.BITSET));
+    }
+
+    @Test
+    public void testDeltas() throws Exception {
+        Set<Short> ids = ids(1, 500, 9000);
+        assertEquals(ids, assertRoundTrip(ids, IdSets.DELTAS));
+    }
+
+    @Test
+    public void testUnsignedIds() throws Exception {
+        Set<Short> ids = ids(-1, -2, 7);
+        assertEquals(ids, assertRoundTrip(ids, IdSets.DELTAS));
+        Set<Short> top = ids(0xFFFE, 0xFFFF);
+        assertEquals(top, assertRoundTrip(top, IdSets.RANGE));
+    }
+
+    @Test
+    public void testCorrupt() {
+        assertThrows(StreamCorruptedException.class, () -> IdSets.read(ByteBuffer.wrap(new byte[]{9})));
+        /*
+         * Range running past the largest id
+         */
+        byte[] range = {IdSets.RANGE, (byte) 0xFF, (byte) 0xFF, 0x03, 2};
+        assertThrows(StreamCorruptedException.class, () -> IdSets.read(ByteBuffer.wrap(range)));
+    }
+
+    @Test
+    public void testSmallestForm() throws Exception {
+        /*
+         * Ids every other number apart fit in a bitset smaller than their deltas
+         */
+        Set<Short> even = new HashSet<>();
+        for (int id = 0; id < 200; id += 2) {
+            even.add((short) id);
+        }
+        assertEquals(even, assertRoundTrip(even, IdSets.BITSET));
+        assertEquals(1 + 1 + 1 + 25, write(even).length);
+        assertEquals(new HashSet<>(Arrays.asList((short) 5, (short) 60000)),
+                assertRoundTrip(ids(5, 60000), IdSets.DELTAS));
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.madzdns.clusterlet.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class KeyDictionaryTest {
+
+    private final KeyDictionary writer = new KeyDictionary();
+    private final KeyDictionary reader = new KeyDictionary();
+
+    private byte[] write(KeyDictionary keys, String... key) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (String k : key) {
+            keys.writeKey(out, k);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes key, checks reader gets it back and returns the number of bytes written
+     */
+    private int send(String key) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(write(writer, key));
+        assertEquals(key, reader.readKey(in));
+        assertFalse(in.hasRemaining());
+        return in.capacity();
+    }
+
+    @Test
+    public void testKeptKey() throws Exception {
+        String key = "zone.example.com";
+        int full = send(key);
+        assertEquals(1 + 2 + key.length(), full);
+        assertEquals(1, send(key));
+        assertEquals(1, send(key));
+    }
+
+    @Test
+    public void testShortKeys() throws Exception {
+        assertEquals(1 + 2 + 3, send("abc"));
+        assertEquals(1 + 2 + 3, send("abc"));
+        assertEquals(1 + 2, send(""));
+    }
+
+    @Test
+    public void testNotKeeping() throws Exception {
+        String key = "zone.example.com";
+        byte[] first = write(KeyDictionary.NOT_KEEPING, key);
+        byte[] second = write(KeyDictionary.NOT_KEEPING, key);
+        assertEquals(1 + 2 + key.length(), second.length);
+        assertEquals(key, reader.readKey(ByteBuffer.wrap(first)));
+        assertEquals(key, reader.readKey(ByteBuffer.wrap(second)));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        for (int i = 0; i < KeyDictionary.CAPACITY; i++) {
+            send("key-" + i);
+        }
+        /*
+         * key-1 is used again, so key-0 is the least recently used one.
+         * Slots below 63 are referred to in one byte
+         */
+        assertEquals(1, send("key-1"));
+        String extra = "key-" + KeyDictionary.CAPACITY;
+        assertEquals(1 + 2 + extra.length(), send(extra));
+        assertEquals(1, send(extra));
+        assertEquals(1, send("key-1"));
+        /*
+         * key-0 lost its slot to extra, so it is written in full again
+         * and takes the slot of key-2
+         */
+        assertEquals(1 + 2 + "key-0".length(), send("key-0"));
+        assertEquals(1, send("key-0"));
+        assertEquals(1 + 2 + "key-2".length(), send("key-2"));
+        assertEquals(1, send(extra));
+        assertEquals(2, send("key-100"));
+    }
+
+    @Test
+    public void testRollback() throws Exception {
+        send("kept-key");
+        writer.begin();
+        byte[] dropped = write(writer, "dropped-key", "kept-key");
+        assertEquals(1 + 2 + "dropped-key".length() + 1, dropped.length);
+        writer.rollback();
+        /*
+         * Reader never saw the dropped frame, so the key is written in full again
+         * and keys kept before the frame are still referred to by slot
+         */
+        assertEquals(1 + 2 + "dropped-key".length(), send("dropped-key"));
+        assertEquals(1, send("dropped-key"));
+        assertEquals(1, send("kept-key"));
+    }
+
+    @Test
+    public void testRollbackFreesSlots() throws Exception {
+        writer.begin();
+        write(writer, "first-key", "second-key");
+        writer.rollback();
+        writer.begin();
+        send("third-key");
+        send("fourth-key");
+        send("fifth-key");
+        assertEquals(1, send("third-key"));
+        assertEquals(1, send("fourth-key"));
+        assertEquals(1, send("fifth-key"));
+    }
+
+    @Test
+    public void testCorrupt() {
+        /*
+         * Reference to a slot nothing was kept in
+         */
+        assertThrows(StreamCorruptedException.class, () -> reader.readKey(ByteBuffer.wrap(new byte[]{2})));
+        byte[] outOfRange = {(byte) 0x81, 0x10};
+        assertThrows(StreamCorruptedException.class, () -> reader.readKey(ByteBuffer.wrap(outOfRange)));
+    }
+}
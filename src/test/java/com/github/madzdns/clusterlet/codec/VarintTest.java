@@ -0,0 +1,36 @@
+package com.github.madzdns.clusterlet.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class VarintTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        int[] values = {0, 1, 0x7F, 0x80, 0x3FFF, 0x4000, 0xFFFF, 0x1FFFFF};
+        int[] sizes = {1, 1, 1, 2, 2, 3, 3, 3};
+        for (int i = 0; i < values.length; i++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Varint.write(new DataOutputStream(bytes), values[i]);
+            assertEquals(sizes[i], Varint.sizeOf(values[i]));
+            assertEquals(sizes[i], bytes.size());
+            ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+            assertEquals(values[i], Varint.read(in));
+            assertFalse(in.hasRemaining());
+        }
+    }
+
+    @Test
+    public void testTooLong() {
+        ByteBuffer in = ByteBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, 0});
+        assertThrows(StreamCorruptedException.class, () -> Varint.read(in));
+    }
+}
@@ -0,0 +1,187 @@
+package com.github.madzdns.clusterlet.codec.mina;
+
+import com.github.madzdns.clusterlet.codec.SyncMessage;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FrameCompressionTest {
+
+    private static final int MAX_FRAME_SIZE = 1 << 20;
+    private static final byte[] ALGORITHMS = {SyncMessage.COMPRESSION_DEFLATE, SyncMessage.COMPRESSION_LZF};
+
+    private static byte[] repetitive(int length) {
+        byte[] data = new byte[length];
+        byte[] word = "zone.example.com:1.2.3.4;".getBytes();
+        for (int i = 0; i < length; i++) {
+            data[i] = word[i % word.length];
+        }
+        return data;
+    }
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] payloadOf(IoBuffer bb) {
+        byte[] payload = new byte[bb.position() - SyncFrame.HEADER_SIZE];
+        bb.flip();
+        bb.position(SyncFrame.HEADER_SIZE);
+        bb.get(payload);
+        return payload;
+    }
+
+    private static byte[] compress(byte algorithm, byte[] data, CompressionDictionaries.Dictionary dictionary) {
+        IoBuffer bb = FrameCompression.compress(algorithm, data, 0, data.length, false, dictionary);
+        assertNotNull(bb);
+        return payloadOf(bb);
+    }
+
+    private static byte[] decompress(byte flags, byte[] payload, CompressionDictionaries dictionaries)
+            throws ProtocolDecoderException {
+        return FrameCompression.decompress(flags, payload, MAX_FRAME_SIZE, dictionaries);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] data = repetitive(5000);
+        for (byte algorithm : ALGORITHMS) {
+            byte[] payload = compress(algorithm, data, null);
+            assertTrue(payload.length < data.length / 4);
+            assertArrayEquals(data, decompress(FrameCompression.flagOf(algorithm), payload, null));
+        }
+    }
+
+    @Test
+    public void testNotSmaller() {
+        for (byte algorithm : ALGORITHMS) {
+            assertNull(FrameCompression.compress(algorithm, new byte[0], 0, 0, false, null));
+            assertNull(FrameCompression.compressBlock(algorithm, new byte[0], 0, 0, null));
+            byte[] data = random(4000);
+            assertNull(FrameCompression.compress(algorithm, data, 0, data.length, false, null));
+            assertNull(FrameCompression.compressBlock(algorithm, data, 0, data.length, null));
+        }
+    }
+
+    @Test
+    public void testBlocks() throws Exception {
+        byte[] head = random(20);
+        byte[] contents = repetitive(3000);
+        byte[] tail = random(7);
+        byte[] data = new byte[head.length + contents.length + tail.length];
+        System.arraycopy(head, 0, data, 0, head.length);
+        System.arraycopy(contents, 0, data, head.length, contents.length);
+        System.arraycopy(tail, 0, data, head.length + contents.length, tail.length);
+        for (byte algorithm : ALGORITHMS) {
+            byte[] block = FrameCompression.compressBlock(algorithm, contents, 0, contents.length, null);
+            assertNotNull(block);
+            IoBuffer bb = IoBuffer.allocate(SyncFrame.HEADER_SIZE + data.length);
+            bb.position(SyncFrame.HEADER_SIZE);
+            FrameCompression.putHeader(bb, data.length, null);
+            FrameCompression.putBlock(bb, head, 0, head.length, false);
+            FrameCompression.putBlock(bb, block, 0, block.length, true);
+            FrameCompression.putBlock(bb, tail, 0, tail.length, false);
+            assertArrayEquals(data, decompress(FrameCompression.flagOf(algorithm), payloadOf(bb), null));
+
+            /* blocks compressed one by one */
+            bb = IoBuffer.allocate(SyncFrame.HEADER_SIZE + data.length);
+            bb.position(SyncFrame.HEADER_SIZE);
+            FrameCompression.putHeader(bb, 2 * contents.length, null);
+            FrameCompression.putBlock(bb, block, 0, block.length, true);
+            FrameCompression.putBlock(bb, block, 0, block.length, true);
+            byte[] twice = decompress(FrameCompression.flagOf(algorithm), payloadOf(bb), null);
+            assertArrayEquals(contents, Arrays.copyOf(twice, contents.length));
+            assertArrayEquals(contents, Arrays.copyOfRange(twice, contents.length, twice.length));
+        }
+    }
+
+    @Test
+    public void testDictionary() throws Exception {
+        CompressionDictionaries dictionaries = new CompressionDictionaries();
+        assertTrue(dictionaries.install(repetitive(1000), 1));
+        CompressionDictionaries.Dictionary dictionary = dictionaries.getCurrent();
+        byte[] data = repetitive(300);
+        byte[] payload = compress(SyncMessage.COMPRESSION_DEFLATE, data, dictionary);
+        byte flags = (byte) (SyncFrame.FLAG_DEFLATE | SyncFrame.FLAG_PRESET_DICTIONARY);
+        assertEquals(dictionary.getId(), ByteBuffer.wrap(payload).getInt(Integer.BYTES));
+        assertArrayEquals(data, decompress(flags, payload, dictionaries));
+
+        assertThrows(ProtocolDecoderException.class, () -> decompress(flags, payload, new CompressionDictionaries()));
+        assertThrows(ProtocolDecoderException.class, () -> decompress(flags, payload, null));
+        byte[] withoutId = compress(SyncMessage.COMPRESSION_DEFLATE, repetitive(3000), dictionary);
+        withoutId = Arrays.copyOfRange(withoutId, Integer.BYTES, withoutId.length);
+        ByteBuffer.wrap(withoutId).putInt(0, 3000);
+        byte[] needsDictionary = withoutId;
+        assertThrows(ProtocolDecoderException.class,
+                () -> decompress(SyncFrame.FLAG_DEFLATE, needsDictionary, null));
+    }
+
+    @Test
+    public void testCorruptInflate() {
+        byte[] data = repetitive(2000);
+        byte[] block = FrameCompression.compressBlock(SyncMessage.COMPRESSION_DEFLATE, data, 0, data.length, null);
+        byte[] out = new byte[data.length];
+        assertThrows(DataFormatException.class,
+                () -> FrameCompression.inflate(block, 0, block.length - 3, out, 0, null));
+        byte[] trailing = Arrays.copyOf(block, block.length + 2);
+        assertThrows(DataFormatException.class,
+                () -> FrameCompression.inflate(trailing, 0, trailing.length, out, 0, null));
+        assertThrows(DataFormatException.class,
+                () -> FrameCompression.inflate(block, 0, block.length, new byte[data.length - 1], 0, null));
+        byte[] garbage = random(100);
+        assertThrows(DataFormatException.class,
+                () -> FrameCompression.inflate(garbage, 0, garbage.length, out, 0, null));
+    }
+
+    @Test
+    public void testCorruptFrames() {
+        byte[] data = repetitive(2000);
+        for (byte algorithm : ALGORITHMS) {
+            byte flags = FrameCompression.flagOf(algorithm);
+            byte[] payload = compress(algorithm, data, null);
+            /* truncated header, block and block header */
+            assertThrows(ProtocolDecoderException.class, () -> decompress(flags, new byte[3], null));
+            assertThrows(ProtocolDecoderException.class,
+                    () -> decompress(flags, Arrays.copyOf(payload, payload.length - 1), null));
+            assertThrows(ProtocolDecoderException.class,
+                    () -> decompress(flags, Arrays.copyOf(payload, 6), null));
+            /* lengths not matching what the blocks hold */
+            byte[] shorter = payload.clone();
+            ByteBuffer.wrap(shorter).putInt(0, data.length - 1);
+            assertThrows(ProtocolDecoderException.class, () -> decompress(flags, shorter, null));
+            byte[] longer = payload.clone();
+            ByteBuffer.wrap(longer).putInt(0, data.length + 1);
+            assertThrows(ProtocolDecoderException.class, () -> decompress(flags, longer, null));
+            byte[] huge = payload.clone();
+            ByteBuffer.wrap(huge).putInt(0, MAX_FRAME_SIZE + 1);
+            assertThrows(ProtocolDecoderException.class, () -> decompress(flags, huge, null));
+            /* block running past the frame */
+            byte[] past = payload.clone();
+            ByteBuffer.wrap(past).putInt(Integer.BYTES, payload.length);
+            assertThrows(ProtocolDecoderException.class, () -> decompress(flags, past, null));
+            byte[] rawPast = payload.clone();
+            ByteBuffer.wrap(rawPast).putInt(Integer.BYTES, Integer.MIN_VALUE);
+            assertThrows(ProtocolDecoderException.class, () -> decompress(flags, rawPast, null));
+            /* corrupted compressed bytes */
+            byte[] corrupt = payload.clone();
+            for (int i = 2 * Integer.BYTES; i < corrupt.length; i += 3) {
+                corrupt[i] ^= 0x5A;
+            }
+            assertThrows(ProtocolDecoderException.class, () -> decompress(flags, corrupt, null));
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.github.madzdns.clusterlet.codec.mina;
+
+import org.apache.mina.core.session.IoSession;
+
+/**
+ * Makes a member behave like one from before the handshake on a connection
+ */
+public final class LegacyPeer {
+    private LegacyPeer() {
+    }
+
+    /**
+     * Nothing written to session tells the peer about protocol version and capabilities
+     */
+    public static void withoutHello(IoSession session) {
+        session.setAttribute(SyncFrame.ADVERTISED_KEY, true);
+    }
+}
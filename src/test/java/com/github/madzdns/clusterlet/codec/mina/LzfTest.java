@@ -0,0 +1,126 @@
+package com.github.madzdns.clusterlet.codec.mina;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LzfTest {
+
+    private static final int MAX_OFFSET = 1 << 13;
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] compress(byte[] data) {
+        byte[] out = new byte[Lzf.maxCompressedLength(data.length)];
+        return Arrays.copyOf(out, Lzf.compress(data, 0, data.length, out, 0));
+    }
+
+    /**
+     * Compresses data, checks it decompresses back and returns the compressed length
+     */
+    private static int roundTrip(byte[] data) throws DataFormatException {
+        byte[] compressed = compress(data);
+        byte[] out = new byte[data.length];
+        assertEquals(data.length, Lzf.decompress(compressed, 0, compressed.length, out, 0));
+        assertArrayEquals(data, out);
+        return compressed.length;
+    }
+
+    /**
+     * @return block repeated after distance bytes of random bytes
+     */
+    private static byte[] repeatedAfter(byte[] block, int distance) {
+        byte[] data = random(distance + block.length, 7);
+        System.arraycopy(block, 0, data, 0, block.length);
+        System.arraycopy(block, 0, data, distance, block.length);
+        return data;
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertEquals(0, roundTrip(new byte[0]));
+        assertEquals(0, Lzf.decompress(new byte[0], 0, 0, new byte[0], 0));
+    }
+
+    @Test
+    public void testShort() throws Exception {
+        roundTrip(new byte[]{1});
+        roundTrip(new byte[]{1, 2});
+        roundTrip(new byte[]{1, 1, 1});
+    }
+
+    @Test
+    public void testIncompressible() throws Exception {
+        byte[] data = random(10000, 1);
+        int compressed = roundTrip(data);
+        assertTrue(compressed > data.length);
+        assertTrue(compressed <= Lzf.maxCompressedLength(data.length));
+    }
+
+    @Test
+    public void testRepetitive() throws Exception {
+        byte[] data = new byte[100000];
+        Arrays.fill(data, (byte) 'a');
+        assertTrue(roundTrip(data) < data.length / 50);
+
+        byte[] text = new byte[50000];
+        byte[] word = "zone.example.com ".getBytes();
+        for (int i = 0; i < text.length; i++) {
+            text[i] = word[i % word.length];
+        }
+        assertTrue(roundTrip(text) < text.length / 10);
+    }
+
+    @Test
+    public void testMaxOffset() throws Exception {
+        byte[] block = random(64, 3);
+        int reachable = roundTrip(repeatedAfter(block, MAX_OFFSET));
+        int unreachable = roundTrip(repeatedAfter(block, MAX_OFFSET + 1));
+        assertTrue(reachable < unreachable - block.length / 2);
+    }
+
+    @Test
+    public void testOffsets() throws Exception {
+        byte[] data = new byte[4096];
+        Arrays.fill(data, (byte) 'x');
+        byte[] compressed = compress(data);
+        byte[] in = new byte[compressed.length + 5];
+        System.arraycopy(compressed, 0, in, 5, compressed.length);
+        byte[] out = new byte[data.length + 9];
+        assertEquals(data.length, Lzf.decompress(in, 5, compressed.length, out, 9));
+        assertArrayEquals(data, Arrays.copyOfRange(out, 9, out.length));
+    }
+
+    @Test
+    public void testCorrupt() {
+        byte[] out = new byte[100];
+        /* literal run of 6 bytes with 2 of them */
+        assertThrows(DataFormatException.class, () -> Lzf.decompress(new byte[]{5, 1, 2}, 0, 3, out, 0));
+        /* back reference missing its offset */
+        assertThrows(DataFormatException.class, () -> Lzf.decompress(new byte[]{0x20}, 0, 1, out, 0));
+        /* back reference before the start of the output */
+        assertThrows(DataFormatException.class, () -> Lzf.decompress(new byte[]{0x20, 0}, 0, 2, out, 0));
+        assertThrows(DataFormatException.class, () -> Lzf.decompress(new byte[]{0, 1, 0x20, 1}, 0, 4, out, 50));
+        /* long back reference missing its length */
+        assertThrows(DataFormatException.class, () -> Lzf.decompress(new byte[]{0, 1, (byte) 0xE0}, 0, 3, out, 0));
+        /* output too small */
+        byte[] data = new byte[1000];
+        byte[] compressed = compress(data);
+        assertThrows(DataFormatException.class,
+                () -> Lzf.decompress(compressed, 0, compressed.length, new byte[999], 0));
+        byte[] literals = compress(random(100, 5));
+        assertThrows(DataFormatException.class,
+                () -> Lzf.decompress(literals, 0, literals.length, new byte[99], 0));
+    }
+}